@@ -0,0 +1,85 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.github.rinde.rinsim.geom.Point;
+
+import utils.GraphUtils;
+import utils.LeuvenDistribution;
+import utils.MultivariateEmpiricalDistribution;
+
+/**
+ * Benchmarks of the density computations of the demand distributions.
+ */
+@State(Scope.Benchmark)
+public class DistributionBenchmark {
+
+	private static final int INITIAL_SAMPLES = 8;
+
+	@Param({Fixtures.LEUVEN, "grid:200x200"})
+	public String map;
+
+	private Fixtures _fixtures;
+	private LeuvenDistribution _leuven;
+	private MultivariateEmpiricalDistribution _empirical;
+	private int _i = 0;
+
+	@Setup
+	public void setup() {
+		_fixtures = new Fixtures(map, 0);
+		_leuven = new LeuvenDistribution();
+		// Fill the empirical distribution with a few samples, so the densities aren't trivially 0.
+		_empirical = createEmpirical();
+	}
+
+	private MultivariateEmpiricalDistribution createEmpirical() {
+		MultivariateEmpiricalDistribution empirical = new MultivariateEmpiricalDistribution();
+		for (int i = 0; i < INITIAL_SAMPLES; i++) {
+			Point p = _fixtures.points[i];
+			empirical.load(new double[]{p.x, p.y});
+		}
+		return empirical;
+	}
+
+	/**
+	 * The distribution that {@link DistributionBenchmark#load(Loading)} adds samples to, separate from
+	 * the one the densities are measured on. It is reset every iteration, so no iteration measures
+	 * the samples that earlier ones added.
+	 */
+	@State(Scope.Benchmark)
+	public static class Loading {
+
+		private MultivariateEmpiricalDistribution _empirical;
+
+		@Setup(Level.Iteration)
+		public void reset(DistributionBenchmark benchmark) {
+			_empirical = benchmark.createEmpirical();
+		}
+	}
+
+	private double[] sample() {
+		return GraphUtils.scaleFromGraph(_fixtures.points[_i++ & (Fixtures.SAMPLES - 1)]);
+	}
+
+	@Benchmark
+	public double leuvenDensity() {
+		return _leuven.density(sample());
+	}
+
+	@Benchmark
+	public double empiricalDensity() {
+		return _empirical.density(sample());
+	}
+
+	@Benchmark
+	public double load(Loading loading) {
+		Point p = _fixtures.points[_i++ & (Fixtures.SAMPLES - 1)];
+		loading._empirical.load(new double[]{p.x, p.y});
+		return loading._empirical.getPeak();
+	}
+}
@@ -0,0 +1,54 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.github.rinde.rinsim.core.Simulator;
+import com.github.rinde.rinsim.core.model.road.RoadModel;
+import com.github.rinde.rinsim.geom.Point;
+
+import gradient.GradientModel;
+import taxi.Scenario;
+import taxi.Taxi;
+import utils.GraphUtils;
+
+/**
+ * A simulator set up for benchmarking, with precomputed random inputs so that the benchmarks
+ * don't measure the random number generation.
+ */
+class Fixtures {
+
+	static final String LEUVEN = "/data/maps/leuven-simple.dot";
+	static final int SAMPLES = 1024;			// Must be a power of two.
+
+	final Simulator simulator;
+	final RoadModel roadModel;
+	final GradientModel gradientModel;
+	final List<Taxi> taxis;
+	final Point[] points = new Point[SAMPLES];	// Random points in the bounds of the map.
+	final Point[] nodes = new Point[SAMPLES];	// Random nodes of the map.
+
+	/**
+	 * Build a simulator without starting it.
+	 * @param map The map to use, see {@link Scenario#loadGraph(String)}.
+	 * @param numTaxis The number of taxis to register.
+	 */
+	Fixtures(String map, int numTaxis) {
+		Scenario scenario = new Scenario();
+		scenario.set("map", map);
+		scenario.set("taxis", Integer.toString(numTaxis));
+		scenario.set("events", "none");
+		simulator = scenario.build();
+		roadModel = simulator.getModelProvider().getModel(RoadModel.class);
+		gradientModel = simulator.getModelProvider().getModel(GradientModel.class);
+		taxis = new ArrayList<Taxi>(roadModel.getObjectsOfType(Taxi.class));
+
+		Random rng = new Random(0);
+		List<Point> allNodes = new ArrayList<Point>(GraphUtils.getGraph().getNodes());
+		for (int i = 0; i < SAMPLES; i++) {
+			points[i] = GraphUtils.scaleToGraph(new double[]{rng.nextDouble(), rng.nextDouble()});
+			nodes[i] = allNodes.get(rng.nextInt(allNodes.size()));
+		}
+	}
+}
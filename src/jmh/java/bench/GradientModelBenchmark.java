@@ -0,0 +1,51 @@
+package bench;
+
+import org.apache.commons.math3.linear.RealVector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import gradient.GradientModel;
+import taxi.Taxi;
+
+/**
+ * Benchmarks of the gradient field computations, for growing numbers of emitters.
+ */
+@State(Scope.Benchmark)
+public class GradientModelBenchmark {
+
+	@Param({Fixtures.LEUVEN, "grid:200x200"})
+	public String map;
+
+	@Param({"30", "300", "3000"})
+	public int taxis;
+
+	private Fixtures _fixtures;
+	private int _i = 0;
+
+	@Setup
+	public void setup() {
+		_fixtures = new Fixtures(map, taxis);
+	}
+
+	@Benchmark
+	public RealVector getMapGradient() {
+		return _fixtures.gradientModel.getMapGradient(_fixtures.points[_i++ & (Fixtures.SAMPLES - 1)]);
+	}
+
+	/**
+	 * The field of all other taxis on a single taxi, i.e. one step of {@link GradientModel#getResultantField(Taxi)}.
+	 */
+	@Benchmark
+	public RealVector getResultantField() {
+		return _fixtures.gradientModel.getResultantField(_fixtures.taxis.get(_i++ % taxis));
+	}
+
+	@Benchmark
+	public RealVector getField() {
+		int i = _i++;
+		return _fixtures.taxis.get(i % taxis).getField(_fixtures.points[i & (Fixtures.SAMPLES - 1)]);
+	}
+}
@@ -0,0 +1,41 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.github.rinde.rinsim.geom.Point;
+
+import utils.GraphUtils;
+
+/**
+ * Benchmarks of the graph queries in {@link GraphUtils}.
+ */
+@State(Scope.Benchmark)
+public class GraphUtilsBenchmark {
+
+	@Param({Fixtures.LEUVEN, "grid:200x200"})
+	public String map;
+
+	private Fixtures _fixtures;
+	private int _i = 0;
+
+	@Setup
+	public void setup() {
+		_fixtures = new Fixtures(map, 0);
+	}
+
+	@Benchmark
+	public Point getClosestNode() {
+		return GraphUtils.getClosestNode(_fixtures.points[_i++ & (Fixtures.SAMPLES - 1)]);
+	}
+
+	@Benchmark
+	public double getShortestPathLength() {
+		int i = _i++;
+		return GraphUtils.getShortestPathLength(_fixtures.nodes[i & (Fixtures.SAMPLES - 1)],
+				_fixtures.nodes[(i + 1) & (Fixtures.SAMPLES - 1)]);
+	}
+}
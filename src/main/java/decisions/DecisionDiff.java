@@ -0,0 +1,64 @@
+package decisions;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Compares two decision logs and reports the first record in which they differ, e.g. to check
+ * that a change to the taxis doesn't change which taxi gets which customer. The logs are streamed,
+ * so logs of long runs are compared in about the time it takes to read them.
+ * <p>
+ * Exits with 0 when the logs are the same, 1 when they differ.
+ */
+public final class DecisionDiff {
+
+	private DecisionDiff() {
+
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: DecisionDiff <log> <other log>");
+			System.exit(2);
+		}
+		DecisionReader a = new DecisionReader(new File(args[0]));
+		DecisionReader b = new DecisionReader(new File(args[1]));
+		boolean same;
+		try {
+			same = compare(a, args[0], b, args[1]);
+		} finally {
+			a.close();
+			b.close();
+		}
+		System.exit(same ? 0 : 1);
+	}
+
+	/**
+	 * Compare two logs record by record, printing the first difference.
+	 * @return Whether the logs are the same.
+	 */
+	static boolean compare(DecisionReader a, String nameA, DecisionReader b, String nameB) throws IOException {
+		long records = 0;
+		while (true) {
+			boolean hasA = a.next();
+			boolean hasB = b.next();
+			if (!hasA && !hasB)
+				break;
+			if (hasA != hasB) {
+				System.out.println("The logs differ after " + records + " records, " + (hasA ? nameB : nameA)
+						+ " ends where the other continues with:");
+				System.out.println("  " + (hasA ? a : b).format());
+				return false;
+			}
+			if (!a.sameRecord(b)) {
+				System.out.println("The logs differ at record " + records + ":");
+				System.out.println("  " + nameA + ": " + a.format());
+				System.out.println("  " + nameB + ": " + b.format());
+				return false;
+			}
+			records++;
+		}
+		System.out.println("The logs are the same, " + records + " records.");
+		return true;
+	}
+}
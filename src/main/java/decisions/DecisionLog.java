@@ -0,0 +1,163 @@
+package decisions;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import com.github.rinde.rinsim.geom.Point;
+
+import utils.GraphUtils;
+
+/**
+ * Records every step of every auction in a compact binary log, to check whether a change alters
+ * the dispatch decisions, see {@link DecisionDiff}, and to replay the recorded demand.
+ * <p>
+ * The file starts with {@link #MAGIC} and {@link #VERSION}, followed by records in the order they
+ * were made. A record is its {@link DecisionType} as a byte, the time since the previous record
+ * and the customer id as varints, followed by the fields of its kind: ids as varints, offers,
+ * path lengths and patience as little-endian doubles and points as their node id, or -1 followed
+ * by their coordinates. Times and node ids are zigzag encoded.
+ * <p>
+ * Records are written from the simulation thread. The log of the current run is installed
+ * globally, so agents can record with the static methods, which do nothing when no log is installed.
+ */
+public class DecisionLog {
+
+	public static final int MAGIC = 0x444C4F47;		// "DLOG"
+	public static final int VERSION = 1;
+	static final int MAX_RECORD = 128;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private static volatile DecisionLog _current;
+
+	private final FileChannel _out;
+	private final ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private long _time = 0;
+
+	public DecisionLog(File file) throws IOException {
+		_out = new FileOutputStream(file).getChannel();
+		_buffer.putInt(MAGIC);
+		_buffer.putInt(VERSION);
+	}
+
+	/**
+	 * Make a log the one that the static methods record to, closing the previous one.
+	 * @param log The log to install, or <code>null</code> to stop recording.
+	 */
+	public static void install(DecisionLog log) throws IOException {
+		DecisionLog previous = _current;
+		_current = log;
+		if (previous != null)
+			previous.close();
+	}
+
+	public static void request(long time, int customer, int attempt, Point pickup, Point dropoff, double pathLength,
+			double patience) {
+		DecisionLog log = _current;
+		if (log == null)
+			return;
+		log.start(DecisionType.REQUEST, time, customer);
+		log.putVarint(attempt);
+		log.putPoint(pickup);
+		log.putPoint(dropoff);
+		log._buffer.putDouble(pathLength);
+		log._buffer.putDouble(patience);
+	}
+
+	public static void offer(long time, int customer, int taxi, int offerId, double offer) {
+		DecisionLog log = _current;
+		if (log == null)
+			return;
+		log.start(DecisionType.OFFER, time, customer);
+		log.putVarint(taxi);
+		log.putVarint(offerId);
+		log._buffer.putDouble(offer);
+	}
+
+	public static void accept(long time, int customer, int taxi, int offerId, double offer) {
+		DecisionLog log = _current;
+		if (log == null)
+			return;
+		log.start(DecisionType.ACCEPT, time, customer);
+		log.putVarint(taxi);
+		log.putVarint(offerId);
+		log._buffer.putDouble(offer);
+	}
+
+	/**
+	 * Record the answer of a taxi to an accept.
+	 * @param confirmed Whether the taxi confirmed, or was no longer available.
+	 */
+	public static void answer(long time, int customer, int taxi, int offerId, boolean confirmed) {
+		DecisionLog log = _current;
+		if (log == null)
+			return;
+		log.start(confirmed ? DecisionType.CONFIRM : DecisionType.UNAVAILABLE, time, customer);
+		log.putVarint(taxi);
+		log.putVarint(offerId);
+	}
+
+	public static void miss(long time, int customer, double bestOffer) {
+		DecisionLog log = _current;
+		if (log == null)
+			return;
+		log.start(DecisionType.MISS, time, customer);
+		log._buffer.putDouble(bestOffer);
+	}
+
+	/**
+	 * Start a record, making sure the whole record fits in the buffer.
+	 */
+	private void start(DecisionType type, long time, int customer) {
+		if (_buffer.remaining() < MAX_RECORD) {
+			try {
+				flush();
+			} catch (IOException e) {
+				throw new IllegalStateException("Writing the decision log failed.", e);
+			}
+		}
+		_buffer.put((byte)type.ordinal());
+		putVarint(zigzag(time - _time));
+		putVarint(customer);
+		_time = time;
+	}
+
+	private void putPoint(Point p) {
+		int id = GraphUtils.getNodeId(p);
+		putVarint(zigzag(id));
+		if (id < 0) {
+			_buffer.putDouble(p.x);
+			_buffer.putDouble(p.y);
+		}
+	}
+
+	private void putVarint(long v) {
+		while ((v & ~0x7FL) != 0) {
+			_buffer.put((byte)((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		_buffer.put((byte)v);
+	}
+
+	static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private void flush() throws IOException {
+		_buffer.flip();
+		while (_buffer.hasRemaining())
+			_out.write(_buffer);
+		_buffer.clear();
+	}
+
+	/**
+	 * Write the remaining records and close the file.
+	 */
+	public void close() throws IOException {
+		flush();
+		_out.close();
+	}
+}
@@ -0,0 +1,238 @@
+package decisions;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+import com.github.rinde.rinsim.geom.Point;
+
+import utils.GraphUtils;
+
+/**
+ * Reads the records of a {@link DecisionLog} one at a time, through a fixed-size buffer, so logs of
+ * any length can be read. Fields that a record kind doesn't have are -1, NaN or <code>null</code>.
+ * <p>
+ * Points are only resolved to graph nodes when they are asked for, so logs can be compared
+ * without loading the graph.
+ */
+public class DecisionReader {
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final FileChannel _in;
+	private final ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private boolean _eof = false;
+	private long _index = -1;
+	private DecisionType _type;
+	private long _time = 0;
+	private int _customer;
+	private int _taxi;
+	private int _offerId;
+	private int _attempt;
+	private double _value;
+	private double _pathLength;
+	private final double[] _pickup = new double[3];		// Node id, or -1 and the coordinates.
+	private final double[] _dropoff = new double[3];
+
+	public DecisionReader(File file) throws IOException {
+		_in = new FileInputStream(file).getChannel();
+		_buffer.limit(0);
+		fill();
+		if (_buffer.remaining() < 8 || _buffer.getInt() != DecisionLog.MAGIC) {
+			_in.close();
+			throw new IOException(file + " is not a decision log.");
+		}
+		int version = _buffer.getInt();
+		if (version != DecisionLog.VERSION) {
+			_in.close();
+			throw new IOException(file + " has version " + version + ", expected " + DecisionLog.VERSION + ".");
+		}
+	}
+
+	/**
+	 * Move to the next record.
+	 * @return Whether there is a next record.
+	 */
+	public boolean next() throws IOException {
+		if (_buffer.remaining() < DecisionLog.MAX_RECORD)
+			fill();
+		if (!_buffer.hasRemaining())
+			return false;
+		_index++;
+		_type = DecisionType.get(_buffer.get());
+		_time += unzigzag(getVarint());
+		_customer = (int)getVarint();
+		_taxi = -1;
+		_offerId = -1;
+		_attempt = -1;
+		_value = Double.NaN;
+		_pathLength = Double.NaN;
+		_pickup[0] = -1;
+		_dropoff[0] = -1;
+		switch (_type) {
+		case REQUEST:
+			_attempt = (int)getVarint();
+			getPoint(_pickup);
+			getPoint(_dropoff);
+			_pathLength = _buffer.getDouble();
+			_value = _buffer.getDouble();
+			break;
+		case OFFER:
+		case ACCEPT:
+			_taxi = (int)getVarint();
+			_offerId = (int)getVarint();
+			_value = _buffer.getDouble();
+			break;
+		case CONFIRM:
+		case UNAVAILABLE:
+			_taxi = (int)getVarint();
+			_offerId = (int)getVarint();
+			break;
+		case MISS:
+			_value = _buffer.getDouble();
+			break;
+		}
+		return true;
+	}
+
+	/**
+	 * Keep the unread bytes and read as much of the file after them as fits in the buffer.
+	 */
+	private void fill() throws IOException {
+		if (_eof)
+			return;
+		_buffer.compact();
+		while (_buffer.hasRemaining()) {
+			if (_in.read(_buffer) < 0) {
+				_eof = true;
+				break;
+			}
+		}
+		_buffer.flip();
+	}
+
+	private void getPoint(double[] p) {
+		p[0] = unzigzag(getVarint());
+		if (p[0] < 0) {
+			p[1] = _buffer.getDouble();
+			p[2] = _buffer.getDouble();
+		}
+	}
+
+	private long getVarint() {
+		long v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = _buffer.get();
+			v |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return v;
+	}
+
+	static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * The position of the current record in the log, starting at 0.
+	 */
+	public long getIndex() {
+		return _index;
+	}
+
+	public DecisionType getType() {
+		return _type;
+	}
+
+	public long getTime() {
+		return _time;
+	}
+
+	public int getCustomer() {
+		return _customer;
+	}
+
+	public int getTaxi() {
+		return _taxi;
+	}
+
+	public int getOfferId() {
+		return _offerId;
+	}
+
+	public int getAttempt() {
+		return _attempt;
+	}
+
+	/**
+	 * The offer, for offers, accepts and misses, or the patience of the customer, for requests.
+	 */
+	public double getValue() {
+		return _value;
+	}
+
+	/**
+	 * The length of the requested trip, for requests.
+	 */
+	public double getPathLength() {
+		return _pathLength;
+	}
+
+	public Point getPickup() {
+		return toPoint(_pickup);
+	}
+
+	public Point getDropoff() {
+		return toPoint(_dropoff);
+	}
+
+	private static Point toPoint(double[] p) {
+		if (p[0] >= 0)
+			return GraphUtils.getNode((int)p[0]);
+		return new Point(p[1], p[2]);
+	}
+
+	/**
+	 * Check if the current record is the same as the current record of another reader.
+	 */
+	public boolean sameRecord(DecisionReader other) {
+		return _type == other._type && _time == other._time && _customer == other._customer && _taxi == other._taxi
+				&& _offerId == other._offerId && _attempt == other._attempt
+				&& Double.compare(_value, other._value) == 0 && Double.compare(_pathLength, other._pathLength) == 0
+				&& samePoint(_pickup, other._pickup) && samePoint(_dropoff, other._dropoff);
+	}
+
+	private static boolean samePoint(double[] a, double[] b) {
+		return a[0] == b[0] && (a[0] >= 0 || (a[1] == b[1] && a[2] == b[2]));
+	}
+
+	/**
+	 * The current record, as text.
+	 */
+	public String format() {
+		StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "#%d %s t=%d customer=%d", _index, _type, _time, _customer));
+		if (_taxi >= 0)
+			sb.append(" taxi=").append(_taxi).append(" offerId=").append(_offerId);
+		if (_type == DecisionType.REQUEST)
+			sb.append(" attempt=").append(_attempt).append(" pickup=").append(formatPoint(_pickup))
+					.append(" dropoff=").append(formatPoint(_dropoff)).append(" pathLength=").append(_pathLength)
+					.append(" patience=").append(_value);
+		else if (!Double.isNaN(_value))
+			sb.append(" offer=").append(_value);
+		return sb.toString();
+	}
+
+	private static String formatPoint(double[] p) {
+		return p[0] >= 0 ? "node " + (long)p[0] : "(" + p[1] + "," + p[2] + ")";
+	}
+
+	public void close() throws IOException {
+		_in.close();
+	}
+}
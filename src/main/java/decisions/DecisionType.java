@@ -0,0 +1,29 @@
+package decisions;
+
+/**
+ * The kinds of records in a {@link DecisionLog}. Every record has a time and a customer id, the
+ * other fields depend on the kind.
+ */
+public enum DecisionType {
+	/** A customer broadcasts a request. Fields: the attempt, the pickup, the dropoff, the path length and the customer's patience. */
+	REQUEST,
+	/** A taxi sends an offer. Fields: the taxi, the offer id (its queue position) and the offer. */
+	OFFER,
+	/** A customer accepts the best offer. Fields: the taxi, the offer id and the offer. */
+	ACCEPT,
+	/** A taxi confirms an accept. Fields: the taxi and the offer id. */
+	CONFIRM,
+	/** A taxi rejects an accept because it took another customer since its offer. Fields: the taxi and the offer id. */
+	UNAVAILABLE,
+	/** A customer found no offer good enough. Fields: the best offer. */
+	MISS;
+
+	private static final DecisionType[] VALUES = values();
+
+	/**
+	 * Get a record kind by its ordinal, without copying the values array.
+	 */
+	public static DecisionType get(int ordinal) {
+		return VALUES[ordinal];
+	}
+}
@@ -0,0 +1,89 @@
+package demand;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads trips from a binary trace file, which is memory-mapped one window at a time, so only
+ * the part of the file that is being read has to be in memory. Convert CSV traces to this format
+ * with {@link TraceConverter}.
+ * <p>
+ * The file starts with {@link #MAGIC}, followed by fixed-size little-endian records of a long
+ * time in ms and four doubles: pickup latitude, pickup longitude, dropoff latitude and dropoff longitude.
+ */
+public class BinaryTripReader implements TripReader {
+
+	public static final int MAGIC = 0x54524950;		// "TRIP"
+	static final int HEADER_SIZE = 4;
+	static final int RECORD_SIZE = 8 + 4*8;
+	private static final long WINDOW_RECORDS = 1 << 20;	// 40MB windows.
+
+	private final RandomAccessFile _file;
+	private final FileChannel _channel;
+	private final long _records;
+	private long _record = -1;
+	private long _windowEnd = 0;		// The first record after the current window.
+	private MappedByteBuffer _window;
+	private long _time;
+	private double _pickupLat, _pickupLon, _dropoffLat, _dropoffLon;
+
+	public BinaryTripReader(File file) throws IOException {
+		_file = new RandomAccessFile(file, "r");
+		_channel = _file.getChannel();
+		if (_channel.size() < HEADER_SIZE || Integer.reverseBytes(_file.readInt()) != MAGIC) {
+			_file.close();
+			throw new IOException(file + " is not a binary trip trace.");
+		}
+		_records = (_channel.size() - HEADER_SIZE) / RECORD_SIZE;
+	}
+
+	public boolean next() throws IOException {
+		if (++_record >= _records)
+			return false;
+		if (_record == _windowEnd) {
+			long count = Math.min(WINDOW_RECORDS, _records - _record);
+			_window = _channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + _record*RECORD_SIZE, count*RECORD_SIZE);
+			_window.order(ByteOrder.LITTLE_ENDIAN);
+			_windowEnd = _record + count;
+		}
+		_time = _window.getLong();
+		_pickupLat = _window.getDouble();
+		_pickupLon = _window.getDouble();
+		_dropoffLat = _window.getDouble();
+		_dropoffLon = _window.getDouble();
+		return true;
+	}
+
+	public long getTime() {
+		return _time;
+	}
+
+	public double getPickupLat() {
+		return _pickupLat;
+	}
+
+	public double getPickupLon() {
+		return _pickupLon;
+	}
+
+	public double getDropoffLat() {
+		return _dropoffLat;
+	}
+
+	public double getDropoffLon() {
+		return _dropoffLon;
+	}
+
+	public long getSkipped() {
+		return 0;
+	}
+
+	public void close() throws IOException {
+		_window = null;
+		_file.close();
+	}
+}
@@ -0,0 +1,175 @@
+package demand;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads trips from a CSV file with the columns
+ * <code>time,pickup_lat,pickup_lon,dropoff_lat,dropoff_lon</code>, where the time is in seconds.
+ * A header line and any further columns are ignored, malformed lines are skipped.
+ * <p>
+ * The file is read through a fixed buffer and parsed without creating objects per line,
+ * so files much larger than the heap can be read at disk speed.
+ */
+public class CsvTripReader implements TripReader {
+
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int COLUMNS = 5;
+	private static final int MAX_FIELD = 64;
+	private static final double[] POWERS_OF_TEN = new double[19];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10;
+	}
+
+	private final InputStream _in;
+	private final byte[] _buffer = new byte[BUFFER_SIZE];
+	private int _position = 0;
+	private int _limit = 0;
+	private final char[] _field = new char[MAX_FIELD];
+	private final double[] _values = new double[COLUMNS];
+	private long _skipped = 0;
+	private boolean _first = true;
+
+	public CsvTripReader(File file) throws IOException {
+		_in = new FileInputStream(file);
+	}
+
+	/**
+	 * Read the next byte.
+	 * @return The byte, or -1 at the end of the file.
+	 */
+	private int read() throws IOException {
+		if (_position == _limit) {
+			_limit = _in.read(_buffer);
+			_position = 0;
+			if (_limit <= 0) {
+				_limit = 0;
+				return -1;
+			}
+		}
+		// Unsigned, so that bytes of non-ASCII text aren't taken for the end of the file.
+		return _buffer[_position++] & 0xFF;
+	}
+
+	public boolean next() throws IOException {
+		while (true) {
+			int c = read();
+			if (c < 0)
+				return false;
+			// Read the first columns of a line, then skip the rest of it.
+			int column = 0;
+			int length = 0;
+			boolean valid = true;
+			while (c >= 0 && c != '\n') {
+				if (c == ',') {
+					if (column < COLUMNS)
+						valid &= parseField(column, length);
+					column++;
+					length = 0;
+				} else if (c != '\r' && c != ' ' && c != '"' && column < COLUMNS) {
+					if (length < MAX_FIELD)
+						_field[length++] = (char)c;
+					else
+						valid = false;
+				}
+				c = read();
+			}
+			if (column < COLUMNS)
+				valid &= parseField(column++, length);
+			boolean header = _first;
+			_first = false;
+			if (valid && column >= COLUMNS)
+				return true;
+			// A first line that can't be read is the header.
+			if (!header && (column > 1 || length > 0))
+				_skipped++;
+		}
+	}
+
+	/**
+	 * Parse the field in the field buffer as the value of a column.
+	 * @return Whether it is a number.
+	 */
+	private boolean parseField(int column, int length) {
+		if (length == 0)
+			return false;
+		double value = parseDecimal(length);
+		if (Double.isNaN(value)) {
+			// Exponents and other unusual notations.
+			try {
+				value = Double.parseDouble(new String(_field, 0, length));
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		_values[column] = value;
+		return true;
+	}
+
+	/**
+	 * Parse a plain decimal number, e.g. "-4.70123", from the field buffer.
+	 * @return The number, or NaN if the field isn't a plain decimal number.
+	 */
+	private double parseDecimal(int length) {
+		int i = 0;
+		boolean negative = false;
+		if (_field[0] == '-' || _field[0] == '+') {
+			negative = _field[0] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = -1;
+		for (; i < length; i++) {
+			char c = _field[i];
+			if (c >= '0' && c <= '9') {
+				// Only as many digits as a long can hold exactly.
+				if (++digits > 18)
+					return Double.NaN;
+				mantissa = mantissa*10 + (c - '0');
+				if (decimals >= 0)
+					decimals++;
+			} else if (c == '.' && decimals < 0)
+				decimals = 0;
+			else
+				return Double.NaN;
+		}
+		if (digits == 0)
+			return Double.NaN;
+		double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+		return negative ? -value : value;
+	}
+
+	public long getTime() {
+		return Math.round(_values[0] * 1000);
+	}
+
+	public double getPickupLat() {
+		return _values[1];
+	}
+
+	public double getPickupLon() {
+		return _values[2];
+	}
+
+	public double getDropoffLat() {
+		return _values[3];
+	}
+
+	public double getDropoffLon() {
+		return _values[4];
+	}
+
+	public long getSkipped() {
+		return _skipped;
+	}
+
+	public void close() throws IOException {
+		_in.close();
+	}
+}
@@ -0,0 +1,77 @@
+package demand;
+
+import java.io.File;
+import java.io.IOException;
+
+import decisions.DecisionReader;
+import decisions.DecisionType;
+
+/**
+ * Replays the customers of a {@link decisions.DecisionLog}: every customer's first request, with
+ * the pickup, dropoff, path length and patience it had when it was recorded, so the demand of a
+ * run can be repeated without drawing any random numbers. The log must have been recorded on the
+ * same map.
+ */
+public class RecordedDemand {
+
+	private final DecisionReader _reader;
+	private Trip _next;
+	private double _patience;
+	private double _pathLength;
+
+	public RecordedDemand(File file) throws IOException {
+		_reader = new DecisionReader(file);
+		advance();
+	}
+
+	/**
+	 * Get the next customer's trip without removing it.
+	 * @return The trip, or <code>null</code> when all customers were replayed.
+	 */
+	public Trip peek() {
+		return _next;
+	}
+
+	/**
+	 * Get the patience of the customer of the trip returned by {@link #peek()}.
+	 */
+	public double getPatience() {
+		return _patience;
+	}
+
+	/**
+	 * Get the path length of the trip returned by {@link #peek()}, as the customer computed it.
+	 */
+	public double getPathLength() {
+		return _pathLength;
+	}
+
+	/**
+	 * Remove the next customer's trip.
+	 */
+	public void poll() {
+		try {
+			advance();
+		} catch (IOException e) {
+			throw new IllegalStateException("Reading the decision log failed.", e);
+		}
+	}
+
+	private void advance() throws IOException {
+		_next = null;
+		while (_reader.next()) {
+			if (_reader.getType() == DecisionType.REQUEST && _reader.getAttempt() == 0) {
+				_next = new Trip(_reader.getTime(), _reader.getPickup(), _reader.getDropoff());
+				_patience = _reader.getValue();
+				_pathLength = _reader.getPathLength();
+				return;
+			}
+		}
+	}
+
+	public void close() {
+		try {
+			_reader.close();
+		} catch (IOException e) { }
+	}
+}
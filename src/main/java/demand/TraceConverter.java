@@ -0,0 +1,50 @@
+package demand;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Converts a CSV trip trace to the binary format of {@link BinaryTripReader}, which is smaller
+ * and much faster to replay.
+ */
+public final class TraceConverter {
+
+	private TraceConverter() {
+
+	}
+
+	/**
+	 * @param args The CSV file to read and the binary file to write.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: TraceConverter <trips.csv> <trips.bin>");
+			System.exit(1);
+		}
+		TripReader in = new CsvTripReader(new File(args[0]));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(args[1]), 1 << 20));
+		long trips = 0;
+		try {
+			out.writeInt(Integer.reverseBytes(BinaryTripReader.MAGIC));
+			while (in.next()) {
+				out.writeLong(Long.reverseBytes(in.getTime()));
+				writeDouble(out, in.getPickupLat());
+				writeDouble(out, in.getPickupLon());
+				writeDouble(out, in.getDropoffLat());
+				writeDouble(out, in.getDropoffLon());
+				trips++;
+			}
+		} finally {
+			out.close();
+			in.close();
+		}
+		System.err.println("Converted " + trips + " trips, skipped " + in.getSkipped() + " malformed lines.");
+	}
+
+	private static void writeDouble(DataOutputStream out, double value) throws IOException {
+		out.writeLong(Long.reverseBytes(Double.doubleToRawLongBits(value)));
+	}
+}
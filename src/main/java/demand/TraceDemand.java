@@ -0,0 +1,185 @@
+package demand;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.github.rinde.rinsim.geom.Point;
+
+import utils.GraphUtils;
+
+/**
+ * Replays the trips of a historical trace as demand. A background thread reads the trace and snaps
+ * the trips to the graph, a bounded number of trips ahead of the simulation, so the trace is never
+ * loaded as a whole and reading doesn't slow down the simulation thread.
+ * <p>
+ * The trips must be sorted by time. The trace time at which the replay starts is simulation time 0,
+ * earlier trips are skipped. When geographic bounds are given, latitudes and longitudes are mapped
+ * linearly onto the bounds of the graph and trips that start or end outside of the bounds are
+ * skipped. Without bounds, the coordinates are used as positions on the graph, with the latitude as y.
+ * Trips that start and end at the same node are skipped as well.
+ */
+public class TraceDemand {
+
+	private static final int CHUNK_SIZE = 4096;
+	private static final int LOOK_AHEAD_CHUNKS = 8;
+	private static final List<Trip> END = Collections.emptyList();
+
+	private final TripReader _reader;
+	private final double[] _bounds;
+	private final BlockingQueue<List<Trip>> _chunks = new ArrayBlockingQueue<List<Trip>>(LOOK_AHEAD_CHUNKS);
+	private final Thread _thread;
+	private List<Trip> _chunk;
+	private int _index = 0;
+	private long _start;
+	private volatile boolean _closed = false;
+	private volatile Exception _error;
+	private volatile long _skipped = 0;
+
+	/**
+	 * Start replaying a trace. The graph must have been set with {@link GraphUtils#init}.
+	 * @param reader The reader of the trace.
+	 * @param bounds The geographic bounds of the graph: minimum latitude, minimum longitude,
+	 * maximum latitude and maximum longitude, or <code>null</code> if the trace uses graph positions.
+	 * @param start The trace time at which to start in ms, or -1 to start at the first trip.
+	 */
+	public TraceDemand(TripReader reader, double[] bounds, long start) {
+		_reader = reader;
+		_bounds = bounds;
+		_start = start;
+		_thread = new Thread(new Runnable() {
+			public void run() {
+				read();
+			}
+		}, "trace-reader");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * Open a trace file.
+	 * @param file The trace file.
+	 * @param format "csv" or "binary".
+	 * @return The reader of the trace.
+	 */
+	public static TripReader open(File file, String format) throws IOException {
+		if (format.equals("csv"))
+			return new CsvTripReader(file);
+		else if (format.equals("binary"))
+			return new BinaryTripReader(file);
+		else
+			throw new IllegalArgumentException("Unknown trace format: " + format + ".");
+	}
+
+	/**
+	 * The reader loop, run by the background thread until the trace ends or the replay is closed.
+	 */
+	private void read() {
+		try {
+			List<Trip> chunk = new ArrayList<Trip>(CHUNK_SIZE);
+			while (!_closed && _reader.next()) {
+				if (_start < 0)
+					_start = _reader.getTime();
+				long time = _reader.getTime() - _start;
+				Point pickup = toGraph(_reader.getPickupLat(), _reader.getPickupLon());
+				Point dropoff = toGraph(_reader.getDropoffLat(), _reader.getDropoffLon());
+				if (time < 0 || pickup == null || dropoff == null)
+					continue;
+				pickup = GraphUtils.getClosestNode(pickup);
+				dropoff = GraphUtils.getClosestNode(dropoff);
+				if (pickup.equals(dropoff)) {
+					_skipped++;
+					continue;
+				}
+				chunk.add(new Trip(time, pickup, dropoff));
+				if (chunk.size() == CHUNK_SIZE) {
+					_chunks.put(chunk);
+					chunk = new ArrayList<Trip>(CHUNK_SIZE);
+				}
+			}
+			if (!chunk.isEmpty())
+				_chunks.put(chunk);
+		} catch (InterruptedException e) {
+			return;
+		} catch (Exception e) {
+			_error = e;
+		} finally {
+			try {
+				_reader.close();
+			} catch (IOException e) {
+				if (_error == null)
+					_error = e;
+			}
+		}
+		try {
+			_chunks.put(END);
+		} catch (InterruptedException e) { }
+	}
+
+	/**
+	 * Map trace coordinates to a point on the map.
+	 * @return The point, or <code>null</code> if it lies outside of the bounds.
+	 */
+	private Point toGraph(double lat, double lon) {
+		if (_bounds == null)
+			return new Point(lon, lat);
+		if (lat < _bounds[0] || lon < _bounds[1] || lat > _bounds[2] || lon > _bounds[3]) {
+			_skipped++;
+			return null;
+		}
+		return GraphUtils.scaleToGraph(new double[]{
+				(lon - _bounds[1]) / (_bounds[3] - _bounds[1]),
+				(lat - _bounds[0]) / (_bounds[2] - _bounds[0])});
+	}
+
+	/**
+	 * Get the next trip, without removing it. Blocks if the reader has fallen behind.
+	 * @return The next trip, or <code>null</code> at the end of the trace.
+	 */
+	public Trip peek() {
+		while (_chunk == null || _index == _chunk.size()) {
+			if (_chunk == END)
+				return null;
+			try {
+				_chunk = _chunks.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			_index = 0;
+			if (_chunk == END && _error != null)
+				throw new IllegalStateException("Reading the trace failed.", _error);
+		}
+		return _chunk.get(_index);
+	}
+
+	/**
+	 * Get and remove the next trip. Blocks if the reader has fallen behind.
+	 * @return The next trip, or <code>null</code> at the end of the trace.
+	 */
+	public Trip poll() {
+		Trip trip = peek();
+		if (trip != null)
+			_index++;
+		return trip;
+	}
+
+	/**
+	 * @return The number of trips that were skipped, because they were malformed or couldn't be placed on the graph.
+	 */
+	public long getSkipped() {
+		return _skipped + _reader.getSkipped();
+	}
+
+	/**
+	 * Stop reading the trace.
+	 */
+	public void close() {
+		_closed = true;
+		_thread.interrupt();
+	}
+}
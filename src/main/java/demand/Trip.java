@@ -0,0 +1,36 @@
+package demand;
+
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * A trip of a trace, snapped to the graph.
+ */
+public final class Trip {
+
+	private final long _time;
+	private final Point _pickup;
+	private final Point _dropoff;
+
+	/**
+	 * @param time The simulation time at which the trip is requested, in ms.
+	 * @param pickup The node where the customer is picked up.
+	 * @param dropoff The node where the customer is dropped off.
+	 */
+	public Trip(long time, Point pickup, Point dropoff) {
+		_time = time;
+		_pickup = pickup;
+		_dropoff = dropoff;
+	}
+
+	public long getTime() {
+		return _time;
+	}
+
+	public Point getPickup() {
+		return _pickup;
+	}
+
+	public Point getDropoff() {
+		return _dropoff;
+	}
+}
@@ -0,0 +1,40 @@
+package demand;
+
+import java.io.IOException;
+
+/**
+ * Reads the trip records of a trace one by one, like a cursor: {@link #next()} moves to the next
+ * record, whose fields can then be read with the getters. Readers stream the file, they never hold
+ * more than a small buffer of it in memory.
+ * <p>
+ * Coordinates are either latitudes and longitudes, or positions on the graph when the trace was
+ * made for a graph, see {@link TraceDemand}.
+ */
+public interface TripReader {
+
+	/**
+	 * Move to the next trip record.
+	 * @return Whether there was a next record, <code>false</code> at the end of the trace.
+	 */
+	boolean next() throws IOException;
+
+	/**
+	 * @return The time at which the trip was requested, in ms.
+	 */
+	long getTime();
+
+	double getPickupLat();
+
+	double getPickupLon();
+
+	double getDropoffLat();
+
+	double getDropoffLon();
+
+	/**
+	 * @return The number of records that were skipped because they could not be read.
+	 */
+	long getSkipped();
+
+	void close() throws IOException;
+}
@@ -0,0 +1,84 @@
+package events;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes events to a compact binary columnar file. Events are collected in blocks, and every block
+ * is written as its event count followed by each column in turn: the event type ordinals (bytes),
+ * the times (longs), the customer ids (ints), the taxi ids (ints) and the three values (doubles).
+ * All numbers are little endian. The file starts with the magic number {@link #MAGIC}.
+ */
+public class BinaryEventWriter implements EventWriter {
+
+	public static final int MAGIC = 0x54415845;		// "TAXE"
+	static final int BLOCK_SIZE = 1 << 14;
+	private static final int EVENT_SIZE = 1 + 8 + 4 + 4 + 3*8;
+
+	private final WritableByteChannel _out;
+	private final ByteBuffer _buffer = ByteBuffer.allocateDirect(4 + BLOCK_SIZE*EVENT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private final byte[] _types = new byte[BLOCK_SIZE];
+	private final long[] _times = new long[BLOCK_SIZE];
+	private final int[] _customers = new int[BLOCK_SIZE];
+	private final int[] _taxis = new int[BLOCK_SIZE];
+	private final double[] _a = new double[BLOCK_SIZE];
+	private final double[] _b = new double[BLOCK_SIZE];
+	private final double[] _c = new double[BLOCK_SIZE];
+	private int _size = 0;
+
+	public BinaryEventWriter(WritableByteChannel out) throws IOException {
+		_out = out;
+		_buffer.putInt(MAGIC);
+		drain();
+	}
+
+	public void write(EventType type, long time, int customer, int taxi, double a, double b, double c) throws IOException {
+		_types[_size] = (byte)type.ordinal();
+		_times[_size] = time;
+		_customers[_size] = customer;
+		_taxis[_size] = taxi;
+		_a[_size] = a;
+		_b[_size] = b;
+		_c[_size] = c;
+		if (++_size == BLOCK_SIZE)
+			flush();
+	}
+
+	public void flush() throws IOException {
+		if (_size == 0)
+			return;
+		_buffer.putInt(_size);
+		_buffer.put(_types, 0, _size);
+		for (int i = 0; i < _size; i++)
+			_buffer.putLong(_times[i]);
+		for (int i = 0; i < _size; i++)
+			_buffer.putInt(_customers[i]);
+		for (int i = 0; i < _size; i++)
+			_buffer.putInt(_taxis[i]);
+		for (int i = 0; i < _size; i++)
+			_buffer.putDouble(_a[i]);
+		for (int i = 0; i < _size; i++)
+			_buffer.putDouble(_b[i]);
+		for (int i = 0; i < _size; i++)
+			_buffer.putDouble(_c[i]);
+		_size = 0;
+		drain();
+	}
+
+	/**
+	 * Write the whole buffer to the channel.
+	 */
+	private void drain() throws IOException {
+		_buffer.flip();
+		while (_buffer.hasRemaining())
+			_out.write(_buffer);
+		_buffer.clear();
+	}
+
+	public void close() throws IOException {
+		flush();
+		_out.close();
+	}
+}
@@ -0,0 +1,53 @@
+package events;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes events as CSV lines, buffering them in a large buffer that is written to a channel at once.
+ */
+public class CsvEventWriter implements EventWriter {
+
+	static final String HEADER = "event,timestamp,customer,taxi,value1,value2,value3\n";
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int MAX_LINE = 256;
+
+	private final WritableByteChannel _out;
+	private final ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final StringBuilder _line = new StringBuilder(MAX_LINE);
+
+	public CsvEventWriter(WritableByteChannel out) {
+		_out = out;
+		put(HEADER);
+	}
+
+	public void write(EventType type, long time, int customer, int taxi, double a, double b, double c) throws IOException {
+		_line.setLength(0);
+		_line.append(type.name()).append(',').append(time).append(',').append(customer).append(',').append(taxi)
+				.append(',').append(a).append(',').append(b).append(',').append(c).append('\n');
+		if (_buffer.remaining() < _line.length() * 2)
+			flush();
+		put(_line);
+	}
+
+	/**
+	 * Put ASCII text in the buffer.
+	 */
+	private void put(CharSequence s) {
+		for (int i = 0; i < s.length(); i++)
+			_buffer.put((byte)s.charAt(i));
+	}
+
+	public void flush() throws IOException {
+		_buffer.flip();
+		while (_buffer.hasRemaining())
+			_out.write(_buffer);
+		_buffer.clear();
+	}
+
+	public void close() throws IOException {
+		flush();
+		_out.close();
+	}
+}
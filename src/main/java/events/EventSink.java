@@ -0,0 +1,205 @@
+package events;
+
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Collects simulation events in a lock-free ring buffer, which a background thread drains to an
+ * {@link EventWriter}. Logging an event only writes a few array slots, so it doesn't slow down the
+ * simulation like printing to standard output does.
+ * <p>
+ * The buffer has a single producer: events must be logged from the simulation thread. When the
+ * writer can't keep up and the buffer is full, the producer waits instead of dropping events.
+ * <p>
+ * The sink of the current run is installed globally, so agents can log with {@link #log}.
+ */
+public class EventSink {
+
+	private static final int CAPACITY = 1 << 16;		// Must be a power of two.
+	private static final int MASK = CAPACITY - 1;
+	private static final long IDLE_PARK_NANOS = 1000000L;
+	// Writers flush by themselves when their buffer is full, an idle sink only flushes this often,
+	// so the short pauses between bursts of events don't cut the output into small blocks.
+	private static final long FLUSH_INTERVAL_NANOS = 1000000000L;
+
+	private static volatile EventSink _current;
+
+	private final EventWriter _writer;
+	private final byte[] _types = new byte[CAPACITY];
+	private final long[] _times = new long[CAPACITY];
+	private final int[] _customers = new int[CAPACITY];
+	private final int[] _taxis = new int[CAPACITY];
+	private final double[] _a = new double[CAPACITY];
+	private final double[] _b = new double[CAPACITY];
+	private final double[] _c = new double[CAPACITY];
+	private final AtomicLong _head = new AtomicLong();	// Sequence of the next event to be logged.
+	private final AtomicLong _tail = new AtomicLong();	// Sequence of the next event to be written.
+	private final Thread _thread;
+	private volatile boolean _closed = false;
+	private volatile IOException _error;
+
+	/**
+	 * Create a sink and start its background writer thread.
+	 * @param writer The writer to drain the events to.
+	 */
+	public EventSink(EventWriter writer) {
+		_writer = writer;
+		_thread = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "event-sink");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * Open a sink that writes to a file, or to standard output for "-".
+	 * @param destination The file to write to, or "none" to not log events.
+	 * @param format "csv" or "binary".
+	 * @return The sink, or <code>null</code> if events should not be logged.
+	 */
+	public static EventSink open(String destination, String format) throws IOException {
+		EventWriter writer = openWriter(destination, format);
+		return writer == null ? null : new EventSink(writer);
+	}
+
+	/**
+	 * Open a writer to a file, or to standard output for "-".
+	 * @param destination The file to write to, or "none" to not log events.
+	 * @param format "csv" or "binary".
+	 * @return The writer, or <code>null</code> if events should not be logged.
+	 */
+	public static EventWriter openWriter(String destination, String format) throws IOException {
+		WritableByteChannel out;
+		if (destination.equals("none"))
+			return null;
+		else if (destination.equals("-")) {
+			// Closing the sink must not close standard output.
+			out = Channels.newChannel(new FilterOutputStream(System.out) {
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			});
+		}
+		else
+			out = new FileOutputStream(destination).getChannel();
+		if (format.equals("csv"))
+			return new CsvEventWriter(out);
+		else if (format.equals("binary"))
+			return new BinaryEventWriter(out);
+		else
+			throw new IllegalArgumentException("Unknown event format: " + format + ".");
+	}
+
+	/**
+	 * Make a sink the one that {@link #log} writes to, closing the previous one.
+	 * @param sink The sink to install, or <code>null</code> to stop logging.
+	 */
+	public static void install(EventSink sink) {
+		EventSink previous = _current;
+		_current = sink;
+		if (previous != null)
+			previous.close();
+	}
+
+	/**
+	 * Get the installed sink.
+	 * @return The installed sink, or <code>null</code> if there is none.
+	 */
+	public static EventSink current() {
+		return _current;
+	}
+
+	/**
+	 * Log an event to the installed sink, if there is one. See {@link EventType} for the values.
+	 */
+	public static void log(EventType type, long time, int customer, int taxi, double a, double b, double c) {
+		EventSink sink = _current;
+		if (sink != null)
+			sink.add(type, time, customer, taxi, a, b, c);
+	}
+
+	public static void log(EventType type, long time, int customer, int taxi, double a) {
+		log(type, time, customer, taxi, a, 0, 0);
+	}
+
+	/**
+	 * Add an event to the ring buffer, waiting for space if it is full.
+	 */
+	public void add(EventType type, long time, int customer, int taxi, double a, double b, double c) {
+		if (_closed)
+			return;
+		final long head = _head.get();
+		while (head - _tail.get() == CAPACITY)
+			Thread.yield();
+		final int i = (int)(head & MASK);
+		_types[i] = (byte)type.ordinal();
+		_times[i] = time;
+		_customers[i] = customer;
+		_taxis[i] = taxi;
+		_a[i] = a;
+		_b[i] = b;
+		_c[i] = c;
+		// Publish the slot, the ordered write makes the slot contents visible to the writer first.
+		_head.lazySet(head + 1);
+	}
+
+	/**
+	 * The writer loop, run by the background thread until the sink is closed and empty.
+	 */
+	private void drain() {
+		try {
+			long lastFlush = System.nanoTime();
+			while (true) {
+				final long head = _head.get();
+				long tail = _tail.get();
+				if (tail == head) {
+					if (_closed && _head.get() == tail)
+						break;
+					if (System.nanoTime() - lastFlush >= FLUSH_INTERVAL_NANOS) {
+						_writer.flush();
+						lastFlush = System.nanoTime();
+					}
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+					continue;
+				}
+				for (; tail < head; tail++) {
+					final int i = (int)(tail & MASK);
+					_writer.write(EventType.get(_types[i]), _times[i], _customers[i], _taxis[i], _a[i], _b[i], _c[i]);
+				}
+				_tail.lazySet(tail);
+			}
+			_writer.close();
+		} catch (IOException e) {
+			_error = e;
+			// Keep consuming, so the producer never blocks on a broken writer.
+			while (!_closed || _tail.get() != _head.get()) {
+				_tail.lazySet(_head.get());
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * Write all remaining events and close the writer, waiting for the background thread to finish.
+	 */
+	public void close() {
+		if (_closed)
+			return;
+		_closed = true;
+		try {
+			_thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (_error != null)
+			throw new IllegalStateException("Writing events failed.", _error);
+	}
+}
@@ -0,0 +1,38 @@
+package events;
+
+/**
+ * The kinds of events that are logged during a simulation. Every event has a time, a customer id
+ * and a taxi id (-1 when not applicable) and three values whose meaning depends on the kind.
+ */
+public enum EventType {
+	/** A customer broadcasts a request. Values: the path length of the trip. */
+	REQUEST,
+	/** A taxi sends an offer to a customer. Values: the offer. */
+	OFFER,
+	/** A taxi confirmed a customer's accept. Values: the path length, the accepted offer and the busy fraction of the fleet. */
+	ACCEPT,
+	/**
+	 * A customer found no offer good enough. Values: the path length, the best offer and the busy fraction of the fleet.
+	 * A taxi that declines only sends a lower bound on its offer, so the best offer is the lowest offer or bound.
+	 */
+	MISS,
+	/** A taxi picked up a customer. Values: the time the customer waited since its first request. */
+	PICKUP,
+	/** A taxi delivered a customer. Values: the path length of the trip and the fuel the taxi used while carrying the customer. */
+	DELIVERY,
+	/** A taxi finished refueling. Values: the fuel added. */
+	REFUEL,
+	/** The total fuel a taxi used during the run, logged at the end. Values: the fuel used. */
+	FUEL_TOTAL;
+
+	private static final EventType[] VALUES = values();
+
+	/**
+	 * Get an event type by its ordinal, without copying the values array.
+	 * @param ordinal The ordinal of the event type.
+	 * @return The event type.
+	 */
+	public static EventType get(int ordinal) {
+		return VALUES[ordinal];
+	}
+}
@@ -0,0 +1,25 @@
+package events;
+
+import java.io.IOException;
+
+/**
+ * Writes events to their final destination. Writers are only used by the background thread of an
+ * {@link EventSink}, so they don't need to be thread safe.
+ */
+public interface EventWriter {
+
+	/**
+	 * Write a single event, see {@link EventType} for the meaning of the values.
+	 */
+	void write(EventType type, long time, int customer, int taxi, double a, double b, double c) throws IOException;
+
+	/**
+	 * Write everything that is buffered.
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Flush and release the destination.
+	 */
+	void close() throws IOException;
+}
@@ -0,0 +1,30 @@
+package events;
+
+import java.io.IOException;
+
+/**
+ * Writes every event to several writers, in order.
+ */
+public class TeeEventWriter implements EventWriter {
+
+	private final EventWriter[] _writers;
+
+	public TeeEventWriter(EventWriter... writers) {
+		_writers = writers.clone();
+	}
+
+	public void write(EventType type, long time, int customer, int taxi, double a, double b, double c) throws IOException {
+		for (EventWriter w : _writers)
+			w.write(type, time, customer, taxi, a, b, c);
+	}
+
+	public void flush() throws IOException {
+		for (EventWriter w : _writers)
+			w.flush();
+	}
+
+	public void close() throws IOException {
+		for (EventWriter w : _writers)
+			w.close();
+	}
+}
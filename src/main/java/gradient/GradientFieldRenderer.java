@@ -1,21 +1,22 @@
 package gradient;
 
-import java.util.List;
-
 import org.apache.commons.math3.distribution.MultivariateRealDistribution;
-import org.apache.commons.math3.linear.RealVector;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Rectangle;
 
 import com.github.rinde.rinsim.core.model.DependencyProvider;
 import com.github.rinde.rinsim.core.model.ModelBuilder.AbstractModelBuilder;
-import com.github.rinde.rinsim.geom.Point;
 import com.github.rinde.rinsim.ui.renderers.CanvasRenderer.AbstractCanvasRenderer;
 import com.github.rinde.rinsim.ui.renderers.ViewPort;
 import com.google.auto.value.AutoValue;
 
-import taxi.Taxi;
+import metrics.Metrics;
+import metrics.Phase;
+import taxi.LevelOfDetail;
+import taxi.RenderSnapshot;
+import taxi.SnapshotModel;
 import taxi.Taxi.TaxiState;
 
 public class GradientFieldRenderer extends AbstractCanvasRenderer {
@@ -23,12 +24,15 @@ public class GradientFieldRenderer extends AbstractCanvasRenderer {
 	final static private int HOTMAP_INTERVAL = 4;
 	
 	GradientModel _gm;
+	SnapshotModel _snapshots;
 
-	GradientFieldRenderer(GradientModel gm) {
+	GradientFieldRenderer(GradientModel gm, SnapshotModel snapshots) {
 		_gm = gm;
+		_snapshots = snapshots;
 	}
 
 	public void renderStatic(GC gc, ViewPort vp) {
+		long start = Metrics.start();
 		MultivariateRealDistribution dist = _gm.getMapDistribution();
 		double maxDensity = _gm.getPeakDensity();
 		int xMax = vp.toCoordX(vp.rect.max.x);
@@ -42,32 +46,41 @@ public class GradientFieldRenderer extends AbstractCanvasRenderer {
 				gc.fillRectangle(x, y, HOTMAP_INTERVAL, HOTMAP_INTERVAL);
 			}
 		}
-		
+		Metrics.stop(Phase.RENDER_HEATMAP, start);
 	}
 
 	public void renderDynamic(GC gc, ViewPort vp, long time) {
-		final List<Taxi> taxis = _gm.getTaxis();
+		long start = Metrics.start();
+		final RenderSnapshot snapshot = _snapshots.acquire();
+		if (snapshot == null)
+			return;
+		// The fields are only drawn in detail, with too many taxis in view the circles would cover everything.
+		final Rectangle clip = gc.getClipping();
+		if (!LevelOfDetail.isDetailed(snapshot, vp, clip)) {
+			Metrics.stop(Phase.RENDER_GRADIENT, start);
+			return;
+		}
 
-		synchronized (taxis) {
-			for (final Taxi t : taxis) {
-				final Point p = t.getPosition().get();
-				final RealVector v = t.getRedustributionVector();
-				if (t.getState() == TaxiState.IDLE && v != null) {
-					// Gradient field resultant vector.
-					gc.setAlpha(255);
-					gc.setLineWidth(2);
-					gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_MAGENTA));
-					gc.fillOval(vp.toCoordX(p.x)-2, vp.toCoordY(p.y)-2, 4, 4);
-					gc.setForeground(gc.getDevice().getSystemColor(SWT.COLOR_YELLOW));
-					gc.drawLine(vp.toCoordX(p.x), vp.toCoordY(p.y), vp.toCoordX(p.x+v.getEntry(0)), vp.toCoordY(p.y+v.getEntry(1)));
-					// Gradient field.
-					gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_WHITE));
-					gc.setAlpha(20);
-					int d = vp.scale(t.getRange())*2;
-					gc.fillOval(vp.toCoordX(p.x)-d/2, vp.toCoordY(p.y)-d/2, d, d);
-				}
+		for (int i = 0; i < snapshot.getNumTaxis(); i++) {
+			final double x = snapshot.getTaxiX(i), y = snapshot.getTaxiY(i);
+			if (!LevelOfDetail.isVisible(vp.toCoordX(x), vp.toCoordY(y), clip))
+				continue;
+			if (snapshot.getTaxiState(i) == TaxiState.IDLE && snapshot.hasVector(i)) {
+				// Gradient field resultant vector.
+				gc.setAlpha(255);
+				gc.setLineWidth(2);
+				gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_MAGENTA));
+				gc.fillOval(vp.toCoordX(x)-2, vp.toCoordY(y)-2, 4, 4);
+				gc.setForeground(gc.getDevice().getSystemColor(SWT.COLOR_YELLOW));
+				gc.drawLine(vp.toCoordX(x), vp.toCoordY(y), vp.toCoordX(x+snapshot.getVectorX(i)), vp.toCoordY(y+snapshot.getVectorY(i)));
+				// Gradient field.
+				gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_WHITE));
+				gc.setAlpha(20);
+				int d = vp.scale(snapshot.getRange(i))*2;
+				gc.fillOval(vp.toCoordX(x)-d/2, vp.toCoordY(y)-d/2, d, d);
 			}
 		}
+		Metrics.stop(Phase.RENDER_GRADIENT, start);
 	}
 
 	public static Builder builder() {
@@ -78,12 +91,12 @@ public class GradientFieldRenderer extends AbstractCanvasRenderer {
 	abstract static class Builder extends AbstractModelBuilder<GradientFieldRenderer, Void> {
 
 		Builder() {
-			setDependencies(GradientModel.class);
+			setDependencies(GradientModel.class, SnapshotModel.class);
 		}
 
 		public GradientFieldRenderer build(DependencyProvider dependencyProvider) {
 			final GradientModel gm = dependencyProvider.get(GradientModel.class);
-			return new GradientFieldRenderer(gm);
+			return new GradientFieldRenderer(gm, dependencyProvider.get(SnapshotModel.class));
 		}
 	}
 }
@@ -20,6 +20,8 @@ import com.github.rinde.rinsim.core.model.ModelReceiver;
 import com.github.rinde.rinsim.geom.Point;
 import com.google.auto.value.AutoValue;
 
+import metrics.Metrics;
+import metrics.Phase;
 import taxi.Taxi;
 import utils.GraphUtils;
 import utils.MultivariateEmpiricalDistribution;
@@ -50,6 +52,8 @@ public class GradientModel extends AbstractModel<FieldEmitter> implements ModelR
 	private final List<FieldEmitter> _emitters;
 	private MultivariateRealDistribution _dist; 
 	private double _peakDensity = -1;
+	private long _epoch = 0;		// Changes whenever any field might have changed.
+	private ZoneRebalancer _rebalancer;	// When set, idle taxis follow its targets instead of the fields.
 
 	GradientModel() {
 		_emitters = new CopyOnWriteArrayList<FieldEmitter>();
@@ -69,6 +73,7 @@ public class GradientModel extends AbstractModel<FieldEmitter> implements ModelR
 	
 	public void setMapDistribution(MultivariateRealDistribution dist) {
 		_dist = dist;
+		fieldChanged();
 		// Calculate the peaks found at the means (not guaranteed absolute peak, but most likely).
 		if (dist instanceof MixtureMultivariateNormalDistribution) {
 			MixtureMultivariateNormalDistribution mmnd = (MixtureMultivariateNormalDistribution)dist;
@@ -87,6 +92,50 @@ public class GradientModel extends AbstractModel<FieldEmitter> implements ModelR
 			_peakDensity = _dist.density(new double[]{0,0});
 	}
 	
+	/**
+	 * Let idle taxis follow the targets of a zone rebalancer instead of the fields of the map and the other taxis.
+	 * @param rebalancer The rebalancer, or <code>null</code> to follow the fields.
+	 */
+	public void setRebalancer(ZoneRebalancer rebalancer) {
+		_rebalancer = rebalancer;
+		fieldChanged();
+	}
+
+	/**
+	 * Check if the resultant field of a taxi points at a target, which the taxi should drive to
+	 * however close it is, instead of being a field that only moves the taxi when strong enough.
+	 * @return Whether the taxis follow the targets of a rebalancer.
+	 */
+	public boolean hasTargets() {
+		return _rebalancer != null;
+	}
+
+	/**
+	 * Signal that a field might have changed, e.g. because an emitter moved or changed strength,
+	 * or because the map distribution learned a new sample.
+	 */
+	public void fieldChanged() {
+		_epoch++;
+	}
+
+	/**
+	 * Get the field epoch, which changes whenever any field might have changed. As long as the
+	 * epoch stays the same, the resultant field at any point stays the same.
+	 * @return The field epoch.
+	 */
+	public long getEpoch() {
+		return _epoch;
+	}
+
+	/**
+	 * Check if the resultant field only changes with the epoch. This is not the case for a uniform
+	 * map distribution, for which taxis move randomly.
+	 * @return Whether the resultant field only changes with the epoch.
+	 */
+	public boolean isFieldStatic() {
+		return _rebalancer != null || !(_dist instanceof MultivariateUniformDistribution);
+	}
+	
 	public MultivariateRealDistribution getMapDistribution() {
 		return _dist;
 	}
@@ -108,6 +157,17 @@ public class GradientModel extends AbstractModel<FieldEmitter> implements ModelR
 	 * @return The resultant field for the given Taxi.
 	 */
 	public RealVector getResultantField(Taxi taxi) {
+		long start = Metrics.start();
+		try {
+			return computeResultantField(taxi);
+		} finally {
+			Metrics.stop(Phase.RESULTANT_FIELD, start);
+		}
+	}
+
+	private RealVector computeResultantField(Taxi taxi) {
+		if (_rebalancer != null)
+			return _rebalancer.getField(taxi);
 		// Move randomly instead of staying still.
 		if (_dist instanceof MultivariateUniformDistribution) {
 			Point from = taxi.getPosition().get();
@@ -164,11 +224,13 @@ public class GradientModel extends AbstractModel<FieldEmitter> implements ModelR
 	public boolean register(FieldEmitter element) {
 		_emitters.add(element);
 		element.setModel(this);
+		fieldChanged();
 		return true;
 	}
 
 	public boolean unregister(FieldEmitter element) {
 		_emitters.remove(element);
+		fieldChanged();
 		return false;
 	}
 
@@ -0,0 +1,302 @@
+package gradient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+
+import com.github.rinde.rinsim.core.model.time.TickListener;
+import com.github.rinde.rinsim.core.model.time.TimeLapse;
+import com.github.rinde.rinsim.geom.Point;
+
+import metrics.Metrics;
+import metrics.Phase;
+import taxi.Taxi;
+import taxi.Taxi.TaxiState;
+import utils.GraphUtils;
+
+/**
+ * Rebalances idle taxis between zones, as an alternative to the pairwise fields of the taxis.
+ * <p>
+ * The map is divided in a grid of zones. Every period, the idle taxis are counted per zone and
+ * spread over the zones in proportion to the demand that the map distribution expects there. The
+ * moves are found by solving the transportation problem between the zones with too many taxis and
+ * the zones with too few, with successive shortest paths, so solving takes time in the number of
+ * zones and not in the number of taxis. Every taxi that has to move gets the central node of its
+ * new zone as its target, and its resultant field points at that target until the next period.
+ * <p>
+ * Must be added as a tick listener before the taxis, so they follow new targets in the same tick.
+ */
+public class ZoneRebalancer implements TickListener {
+
+	private static final int NONE = -1;
+
+	private final GradientModel _gm;
+	private final int _side;			// The number of zones along each side of the map.
+	private final long _period;
+	private final double _minX, _minY, _zoneWidth, _zoneHeight;
+	private final Point[] _centres;	// The node closest to the centre of every zone, null for zones without nodes.
+	private final int[] _nodeCounts;
+	private final Map<Taxi, Point> _targets = new HashMap<Taxi, Point>();
+	private long _nextSolve = 0;
+
+	/**
+	 * Create a rebalancer for the graph in {@link GraphUtils}, which must be initialised.
+	 * @param gm The gradient model that provides the taxis and the map distribution.
+	 * @param side The number of zones along each side of the map.
+	 * @param period The time between two rebalancings, in ms.
+	 */
+	public ZoneRebalancer(GradientModel gm, int side, long period) {
+		_gm = gm;
+		_side = side;
+		_period = period;
+		Point[] bounds = GraphUtils.getBounds();
+		_minX = bounds[0].x;
+		_minY = bounds[0].y;
+		// Keep a zone for the nodes on the far edges, even for a map without width or height.
+		_zoneWidth = Math.nextUp((bounds[1].x - _minX) / side);
+		_zoneHeight = Math.nextUp((bounds[1].y - _minY) / side);
+		_centres = new Point[side*side];
+		_nodeCounts = new int[side*side];
+		double[] centreDistances = new double[side*side];
+		for (int i = 0; i < GraphUtils.getNodeCount(); i++) {
+			Point n = GraphUtils.getNode(i);
+			int z = getZone(n);
+			double d = Point.distance(n, getZoneCentre(z));
+			if (_centres[z] == null || d < centreDistances[z]) {
+				_centres[z] = n;
+				centreDistances[z] = d;
+			}
+			_nodeCounts[z]++;
+		}
+	}
+
+	private int getZone(Point p) {
+		int x = Math.min(_side - 1, Math.max(0, (int)((p.x - _minX) / _zoneWidth)));
+		int y = Math.min(_side - 1, Math.max(0, (int)((p.y - _minY) / _zoneHeight)));
+		return y*_side + x;
+	}
+
+	/**
+	 * Get the geometric centre of a zone, which need not be on the graph.
+	 */
+	private Point getZoneCentre(int z) {
+		return new Point(_minX + (z % _side + 0.5)*_zoneWidth, _minY + (z / _side + 0.5)*_zoneHeight);
+	}
+
+	public void tick(TimeLapse time) {
+		if (time.getTime() < _nextSolve)
+			return;
+		_nextSolve = time.getTime() + _period;
+		long start = Metrics.start();
+		rebalance();
+		Metrics.stop(Phase.REBALANCE, start);
+		// Dormant taxis must look at their new targets.
+		_gm.fieldChanged();
+	}
+
+	public void afterTick(TimeLapse timeLapse) { }
+
+	/**
+	 * Get the field that moves a taxi to its target: the vector from the taxi to its target, or a
+	 * zero vector when it has no target.
+	 * @param taxi An idle taxi.
+	 * @return The field.
+	 */
+	RealVector getField(Taxi taxi) {
+		Point target = _targets.get(taxi);
+		if (target == null)
+			return new ArrayRealVector(2);
+		Point p = taxi.getPosition().get();
+		return new ArrayRealVector(new double[]{target.x-p.x, target.y-p.y});
+	}
+
+	/**
+	 * Count the idle taxis per zone, find the cheapest moves to spread them according to the
+	 * demand and give the taxis that have to move their targets.
+	 */
+	private void rebalance() {
+		_targets.clear();
+		int zones = _centres.length;
+		List<List<Taxi>> idle = new ArrayList<List<Taxi>>(zones);
+		for (int z = 0; z < zones; z++)
+			idle.add(new ArrayList<Taxi>());
+		int numIdle = 0;
+		for (Taxi t : _gm.getTaxis()) {
+			if (t.getState() == TaxiState.IDLE) {
+				idle.get(getZone(t.getPosition().get())).add(t);
+				numIdle++;
+			}
+		}
+		if (numIdle == 0)
+			return;
+
+		// The expected demand of a zone, the density at its centre for every node in it.
+		double[] demand = new double[zones];
+		double totalDemand = 0;
+		for (int z = 0; z < zones; z++) {
+			if (_centres[z] != null) {
+				demand[z] = _nodeCounts[z]*_gm.getMapDistribution().density(GraphUtils.scaleFromGraph(_centres[z]));
+				totalDemand += demand[z];
+			}
+		}
+		if (!(totalDemand > 0))
+			return;
+		int[] surplus = getSurplus(idle, demand, totalDemand, numIdle);
+
+		// Zones with too many taxis are the sources, zones with too few the sinks.
+		List<Integer> sources = new ArrayList<Integer>();
+		List<Integer> sinks = new ArrayList<Integer>();
+		for (int z = 0; z < zones; z++) {
+			if (surplus[z] > 0)
+				sources.add(z);
+			else if (surplus[z] < 0)
+				sinks.add(z);
+		}
+		int[][] flow = solveTransportation(sources, sinks, surplus);
+
+		for (int i = 0; i < sources.size(); i++) {
+			List<Taxi> taxis = idle.get(sources.get(i));
+			for (int j = 0; j < sinks.size(); j++) {
+				if (flow[i][j] == 0)
+					continue;
+				// Send the taxis that are closest to the zone.
+				Point target = _centres[sinks.get(j)];
+				selectClosest(taxis, target, flow[i][j]);
+				for (int k = 0; k < flow[i][j]; k++)
+					_targets.put(taxis.get(k), target);
+				taxis.subList(0, flow[i][j]).clear();
+			}
+		}
+	}
+
+	/**
+	 * Move the taxis that are closest to a target to the front of a list, in no particular order.
+	 * @param taxis The taxis.
+	 * @param target The target.
+	 * @param k The number of taxis to move to the front, at least 1 and at most the number of taxis.
+	 */
+	private static void selectClosest(List<Taxi> taxis, Point target, int k) {
+		double[] distances = new double[taxis.size()];
+		for (int i = 0; i < distances.length; i++)
+			distances[i] = Point.distance(taxis.get(i).getPosition().get(), target);
+		// Quickselect, partitioning around the middle element until the k-th closest taxi is in place.
+		int lo = 0, hi = distances.length - 1;
+		while (lo < hi) {
+			double pivot = distances[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (distances[i] < pivot)
+					i++;
+				while (distances[j] > pivot)
+					j--;
+				if (i <= j) {
+					double d = distances[i];
+					distances[i] = distances[j];
+					distances[j] = d;
+					Collections.swap(taxis, i++, j--);
+				}
+			}
+			if (k - 1 <= j)
+				hi = j;
+			else if (k - 1 >= i)
+				lo = i;
+			else
+				break;
+		}
+	}
+
+	/**
+	 * Spread the idle taxis over the zones in proportion to their demand, rounding by the largest remainder.
+	 * @return For every zone, how many idle taxis it has more than its share, negative if it has less.
+	 */
+	private int[] getSurplus(List<List<Taxi>> idle, double[] demand, double totalDemand, int numIdle) {
+		int zones = demand.length;
+		int[] surplus = new int[zones];
+		double[] remainders = new double[zones];
+		int assigned = 0;
+		for (int z = 0; z < zones; z++) {
+			double share = numIdle*demand[z]/totalDemand;
+			int target = (int)share;
+			remainders[z] = share - target;
+			surplus[z] = idle.get(z).size() - target;
+			assigned += target;
+		}
+		for (; assigned < numIdle; assigned++) {
+			int best = NONE;
+			for (int z = 0; z < zones; z++)
+				if (demand[z] > 0 && (best == NONE || remainders[z] > remainders[best]))
+					best = z;
+			remainders[best] = -1;
+			surplus[best]--;
+		}
+		return surplus;
+	}
+
+	/**
+	 * Find the cheapest moves from the sources to the sinks, by successive shortest paths on the
+	 * residual network. A move costs the distance between the geometric centres of its zones.
+	 * @return The number of taxis to move from every source to every sink.
+	 */
+	private int[][] solveTransportation(List<Integer> sources, List<Integer> sinks, int[] surplus) {
+		int s = sources.size(), d = sinks.size();
+		// Node 0 is the super source, 1..s the sources, s+1..s+d the sinks and s+d+1 the super sink.
+		int n = s + d + 2, sink = n - 1;
+		int[][] capacity = new int[n][n];
+		double[][] cost = new double[n][n];
+		for (int i = 0; i < s; i++) {
+			capacity[0][1+i] = surplus[sources.get(i)];
+			for (int j = 0; j < d; j++) {
+				capacity[1+i][1+s+j] = Integer.MAX_VALUE;
+				cost[1+i][1+s+j] = Point.distance(getZoneCentre(sources.get(i)), getZoneCentre(sinks.get(j)));
+				cost[1+s+j][1+i] = -cost[1+i][1+s+j];
+			}
+		}
+		for (int j = 0; j < d; j++)
+			capacity[1+s+j][sink] = -surplus[sinks.get(j)];
+
+		double[] distance = new double[n];
+		int[] previous = new int[n];
+		while (true) {
+			Arrays.fill(distance, Double.POSITIVE_INFINITY);
+			Arrays.fill(previous, NONE);
+			distance[0] = 0;
+			boolean changed = true;
+			for (int round = 0; round < n && changed; round++) {
+				changed = false;
+				for (int u = 0; u < n; u++) {
+					if (distance[u] == Double.POSITIVE_INFINITY)
+						continue;
+					for (int v = 0; v < n; v++) {
+						if (capacity[u][v] > 0 && distance[u] + cost[u][v] < distance[v]) {
+							distance[v] = distance[u] + cost[u][v];
+							previous[v] = u;
+							changed = true;
+						}
+					}
+				}
+			}
+			if (previous[sink] == NONE)
+				break;
+			int push = Integer.MAX_VALUE;
+			for (int v = sink; v != 0; v = previous[v])
+				push = Math.min(push, capacity[previous[v]][v]);
+			for (int v = sink; v != 0; v = previous[v]) {
+				capacity[previous[v]][v] -= push;
+				capacity[v][previous[v]] += push;
+			}
+		}
+
+		// The flow from a source to a sink is the residual capacity back from the sink.
+		int[][] flow = new int[s][d];
+		for (int i = 0; i < s; i++)
+			for (int j = 0; j < d; j++)
+				flow[i][j] = capacity[1+s+j][1+i];
+		return flow;
+	}
+}
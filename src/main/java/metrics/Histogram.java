@@ -0,0 +1,105 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with log-linear buckets, in the style of HDR histograms: every power of two
+ * is split into {@link #SUB_BUCKETS} linear buckets, so every recorded value is known up to a
+ * relative error of 1/{@link #SUB_BUCKETS}, over the whole range of longs, in a fixed amount of memory.
+ * <p>
+ * Recording is lock-free and may be done from several threads.
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Record a value.
+	 * @param value The value, negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		_counts.incrementAndGet(index(value));
+		_count.incrementAndGet();
+		_sum.addAndGet(value);
+		long max;
+		while (value > (max = _max.get()) && !_max.compareAndSet(max, value)) { }
+	}
+
+	/**
+	 * The bucket of a value: values below {@link #SUB_BUCKETS} have a bucket each, above that,
+	 * the position of the highest bit selects the group and the next bits the bucket in the group.
+	 */
+	static int index(long value) {
+		if (value < SUB_BUCKETS)
+			return (int)value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int)((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * The lowest value that falls in a bucket.
+	 */
+	static long lowestValue(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int shift = index / SUB_BUCKETS - 1;
+		return (long)(index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+	}
+
+	public long getCount() {
+		return _count.get();
+	}
+
+	public long getMax() {
+		return _max.get();
+	}
+
+	public long getSum() {
+		return _sum.get();
+	}
+
+	public double getMean() {
+		long count = _count.get();
+		return count == 0 ? 0 : (double)_sum.get() / count;
+	}
+
+	/**
+	 * Get the approximate value at a quantile.
+	 * @param quantile The quantile, between 0 and 1.
+	 * @return The lowest value of the bucket the quantile falls in.
+	 */
+	public long getValueAtQuantile(double quantile) {
+		long count = _count.get();
+		if (count == 0)
+			return 0;
+		long rank = Math.max(1, (long)Math.ceil(quantile * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += _counts.get(i);
+			if (seen >= rank)
+				return Math.min(lowestValue(i), _max.get());
+		}
+		return _max.get();
+	}
+
+	/**
+	 * Forget all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			_counts.set(i, 0);
+		_count.set(0);
+		_sum.set(0);
+		_max.set(0);
+	}
+}
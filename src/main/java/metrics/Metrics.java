@@ -0,0 +1,151 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Times the phases of the simulation in latency histograms. Timing is off by default and can be
+ * turned on at runtime, through a scenario setting or through JMX under <code>taxi:type=Metrics</code>.
+ * <p>
+ * Usage:
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * Metrics.stop(Phase.SEND_OFFER, start);
+ * </pre>
+ * When timing is off, {@link #start()} only reads a volatile flag and {@link #stop} does nothing.
+ */
+public final class Metrics {
+
+	private static volatile boolean _enabled = false;
+	private static final Map<Phase, Histogram> HISTOGRAMS = new EnumMap<Phase, Histogram>(Phase.class);
+	private static final Histogram[] BY_ORDINAL = new Histogram[Phase.values().length];
+	static {
+		for (Phase p : Phase.values()) {
+			BY_ORDINAL[p.ordinal()] = new Histogram();
+			HISTOGRAMS.put(p, BY_ORDINAL[p.ordinal()]);
+		}
+		registerMBeans();
+	}
+
+	private Metrics() {
+
+	}
+
+	public static boolean isEnabled() {
+		return _enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		_enabled = enabled;
+	}
+
+	/**
+	 * Start timing a phase.
+	 * @return The start time, or 0 if timing is off.
+	 */
+	public static long start() {
+		return _enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Stop timing a phase and record its duration.
+	 * @param phase The phase that was timed.
+	 * @param start The value returned by {@link #start()}.
+	 */
+	public static void stop(Phase phase, long start) {
+		if (start != 0)
+			BY_ORDINAL[phase.ordinal()].record(System.nanoTime() - start);
+	}
+
+	public static Histogram get(Phase phase) {
+		return BY_ORDINAL[phase.ordinal()];
+	}
+
+	public static void reset() {
+		for (Histogram h : BY_ORDINAL)
+			h.reset();
+	}
+
+	/**
+	 * A text table with the number of calls, the latency distribution and the total time of every phase that was timed.
+	 */
+	public static String summary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-22s %10s %10s %10s %10s %10s %12s%n",
+				"phase", "count", "mean(us)", "p50(us)", "p99(us)", "max(us)", "total(ms)"));
+		for (Map.Entry<Phase, Histogram> e : HISTOGRAMS.entrySet()) {
+			Histogram h = e.getValue();
+			if (h.getCount() == 0)
+				continue;
+			sb.append(String.format("%-22s %10d %10.1f %10.1f %10.1f %10.1f %12.1f%n", e.getKey(), h.getCount(),
+					h.getMean()/1e3, h.getValueAtQuantile(0.5)/1e3, h.getValueAtQuantile(0.99)/1e3,
+					h.getMax()/1e3, h.getSum()/1e6));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Publish the control bean and a bean for every phase on the platform MBean server.
+	 */
+	private static void registerMBeans() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("taxi:type=Metrics");
+			if (server.isRegistered(name))
+				return;
+			server.registerMBean(new MetricsMXBean() {
+				public boolean isEnabled() {
+					return Metrics.isEnabled();
+				}
+
+				public void setEnabled(boolean enabled) {
+					Metrics.setEnabled(enabled);
+				}
+
+				public void reset() {
+					Metrics.reset();
+				}
+
+				public String getSummary() {
+					return Metrics.summary();
+				}
+			}, name);
+			for (final Phase p : Phase.values()) {
+				final Histogram h = get(p);
+				server.registerMBean(new PhaseMXBean() {
+					public long getCount() {
+						return h.getCount();
+					}
+
+					public double getMeanMicros() {
+						return h.getMean()/1e3;
+					}
+
+					public double getMedianMicros() {
+						return h.getValueAtQuantile(0.5)/1e3;
+					}
+
+					public double getP99Micros() {
+						return h.getValueAtQuantile(0.99)/1e3;
+					}
+
+					public double getMaxMicros() {
+						return h.getMax()/1e3;
+					}
+
+					public double getTotalMillis() {
+						return h.getSum()/1e6;
+					}
+				}, new ObjectName("taxi:type=Metrics,phase=" + p.name()));
+			}
+		} catch (JMException e) {
+			System.err.println("Could not publish the metrics through JMX: " + e.getMessage());
+		}
+	}
+}
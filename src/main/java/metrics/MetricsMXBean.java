@@ -0,0 +1,21 @@
+package metrics;
+
+/**
+ * JMX interface to turn the timing of the tick phases on and off and to read the results.
+ */
+public interface MetricsMXBean {
+
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	/**
+	 * Forget all recorded timings.
+	 */
+	void reset();
+
+	/**
+	 * A text table with the timing of every phase.
+	 */
+	String getSummary();
+}
@@ -0,0 +1,18 @@
+package metrics;
+
+/**
+ * The phases of a simulation tick that are timed by {@link Metrics}.
+ */
+public enum Phase {
+	TAXI_MESSAGES,
+	SEND_OFFER,
+	HANDLE_ACCEPT,
+	MOVE_TO_DISTRIBUTION,
+	RESULTANT_FIELD,
+	REBALANCE,
+	EMPIRICAL_LOAD,
+	RENDER_TAXIS,
+	RENDER_CUSTOMERS,
+	RENDER_GRADIENT,
+	RENDER_HEATMAP
+}
@@ -0,0 +1,19 @@
+package metrics;
+
+/**
+ * JMX view on the timing of a single phase. Times are in microseconds.
+ */
+public interface PhaseMXBean {
+
+	long getCount();
+
+	double getMeanMicros();
+
+	double getMedianMicros();
+
+	double getP99Micros();
+
+	double getMaxMicros();
+
+	double getTotalMillis();
+}
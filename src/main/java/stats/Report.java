@@ -0,0 +1,182 @@
+package stats;
+
+import java.util.Locale;
+
+/**
+ * A snapshot of the statistics of a run, taken by {@link Statistics#snapshot()}. Times are in seconds.
+ */
+public final class Report {
+
+	/**
+	 * The summary of a distribution of times.
+	 */
+	public static final class Distribution {
+		private final long _count;
+		private final double _mean;
+		private final double _p50;
+		private final double _p90;
+		private final double _p99;
+		private final double _max;
+
+		Distribution(TDigest digest, double sum, double scale) {
+			_count = digest.getCount();
+			_mean = _count == 0 ? Double.NaN : sum / _count * scale;
+			_p50 = digest.getQuantile(0.5) * scale;
+			_p90 = digest.getQuantile(0.9) * scale;
+			_p99 = digest.getQuantile(0.99) * scale;
+			_max = digest.getMax() * scale;
+		}
+
+		public long getCount() {
+			return _count;
+		}
+
+		public double getMean() {
+			return _mean;
+		}
+
+		public double getMedian() {
+			return _p50;
+		}
+
+		public double getP90() {
+			return _p90;
+		}
+
+		public double getP99() {
+			return _p99;
+		}
+
+		public double getMax() {
+			return _max;
+		}
+	}
+
+	private final long _time;
+	private final long _requests;
+	private final long _accepts;
+	private final long _misses;
+	private final Distribution _confirmLatency;
+	private final Distribution _pickupWait;
+	private final double _emptyRatio;
+	private final double _utilisation;
+	private final double _requestRate;
+	private final double _acceptRate;
+	private final double _missRate;
+
+	Report(long time, long requests, long accepts, long misses, Distribution confirmLatency, Distribution pickupWait,
+			double emptyRatio, double utilisation, double requestRate, double acceptRate, double missRate) {
+		_time = time;
+		_requests = requests;
+		_accepts = accepts;
+		_misses = misses;
+		_confirmLatency = confirmLatency;
+		_pickupWait = pickupWait;
+		_emptyRatio = emptyRatio;
+		_utilisation = utilisation;
+		_requestRate = requestRate;
+		_acceptRate = acceptRate;
+		_missRate = missRate;
+	}
+
+	/**
+	 * The simulated time of the last event, in ms.
+	 */
+	public long getTime() {
+		return _time;
+	}
+
+	/**
+	 * The number of requests, including the new requests of customers whose taxi became unavailable.
+	 */
+	public long getRequests() {
+		return _requests;
+	}
+
+	public long getAccepts() {
+		return _accepts;
+	}
+
+	public long getMisses() {
+		return _misses;
+	}
+
+	/**
+	 * The fraction of decided customers that accepted an offer, NaN while no customer decided.
+	 */
+	public double getAcceptanceRatio() {
+		return _accepts + _misses == 0 ? Double.NaN : (double)_accepts / (_accepts + _misses);
+	}
+
+	/**
+	 * The time from a customer's first offer until a taxi confirmed it.
+	 */
+	public Distribution getConfirmLatency() {
+		return _confirmLatency;
+	}
+
+	/**
+	 * The time from a customer's first request until its pickup.
+	 */
+	public Distribution getPickupWait() {
+		return _pickupWait;
+	}
+
+	/**
+	 * The fraction of the fleet's distance driven without a passenger, NaN until the fuel totals
+	 * are logged at the end of the run.
+	 */
+	public double getEmptyRatio() {
+		return _emptyRatio;
+	}
+
+	/**
+	 * The time-weighted average fraction of the fleet that was busy.
+	 */
+	public double getUtilisation() {
+		return _utilisation;
+	}
+
+	/**
+	 * The requests per hour, over the last hour.
+	 */
+	public double getRequestRate() {
+		return _requestRate;
+	}
+
+	/**
+	 * The accepts per hour, over the last hour.
+	 */
+	public double getAcceptRate() {
+		return _acceptRate;
+	}
+
+	/**
+	 * The misses per hour, over the last hour.
+	 */
+	public double getMissRate() {
+		return _missRate;
+	}
+
+	/**
+	 * The report as a text table.
+	 */
+	public String format() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.ROOT, "Statistics at %.2f h: %d requests, %d accepts, %d misses, acceptance %.3f%n",
+				_time / 3600000d, _requests, _accepts, _misses, getAcceptanceRatio()));
+		sb.append(String.format(Locale.ROOT, "Last hour: %.1f requests/h, %.1f accepts/h, %.1f misses/h%n",
+				_requestRate, _acceptRate, _missRate));
+		sb.append(String.format(Locale.ROOT, "Utilisation %.3f, empty distance %.3f%n", _utilisation, _emptyRatio));
+		sb.append(String.format(Locale.ROOT, "%-16s %10s %10s %10s %10s %10s %10s%n",
+				"time(s)", "count", "mean", "p50", "p90", "p99", "max"));
+		append(sb, "confirm latency", _confirmLatency);
+		append(sb, "pickup wait", _pickupWait);
+		return sb.toString();
+	}
+
+	private static void append(StringBuilder sb, String name, Distribution d) {
+		sb.append(String.format(Locale.ROOT, "%-16s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+				name, d.getCount(), d.getMean(), d.getMedian(), d.getP90(), d.getP99(), d.getMax()));
+	}
+}
@@ -0,0 +1,183 @@
+package stats;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import events.EventType;
+import events.EventWriter;
+
+/**
+ * Computes the key figures of a run while it runs, from the same events that are logged, so they
+ * don't have to be recomputed from the event log afterwards. Every event updates the statistics in
+ * constant time and the memory doesn't grow with the length of the run: distributions are kept in
+ * {@link TDigest}s, rates in {@link WindowedRate}s. Only the customers that are waiting for a
+ * confirmation are remembered.
+ * <p>
+ * Statistics are an {@link EventWriter}, so they are updated on the background thread of the
+ * event sink. Snapshots can be taken from any thread, and are published through JMX under
+ * <code>taxi:type=Statistics</code>.
+ */
+public class Statistics implements EventWriter {
+
+	private static final long HOUR = 60*60*1000L;
+	private static final int WINDOW_BUCKETS = 60;
+
+	private long _time = 0;
+	private long _requests = 0;
+	private long _accepts = 0;
+	private long _misses = 0;
+	private final Map<Integer, Long> _firstOffers = new HashMap<Integer, Long>();	// Customers waiting for a confirmation.
+	private final TDigest _confirmLatency = new TDigest();
+	private double _confirmLatencySum = 0;
+	private final TDigest _pickupWait = new TDigest();
+	private double _pickupWaitSum = 0;
+	private double _loadedFuel = 0;
+	private double _totalFuel = 0;
+	// The busy fraction of the fleet is sampled at every decision and integrated over time.
+	private long _firstSample = -1;
+	private long _lastSample;
+	private double _busy;
+	private double _busyIntegral = 0;
+	private final WindowedRate _requestRate = new WindowedRate(HOUR, WINDOW_BUCKETS);
+	private final WindowedRate _acceptRate = new WindowedRate(HOUR, WINDOW_BUCKETS);
+	private final WindowedRate _missRate = new WindowedRate(HOUR, WINDOW_BUCKETS);
+
+	public synchronized void write(EventType type, long time, int customer, int taxi, double a, double b, double c) {
+		if (time > _time)
+			_time = time;
+		switch (type) {
+		case REQUEST:
+			_requests++;
+			_requestRate.add(time);
+			break;
+		case OFFER:
+			if (!_firstOffers.containsKey(customer))
+				_firstOffers.put(customer, time);
+			break;
+		case ACCEPT:
+			_accepts++;
+			_acceptRate.add(time);
+			Long offered = _firstOffers.remove(customer);
+			if (offered != null) {
+				_confirmLatency.add(time - offered);
+				_confirmLatencySum += time - offered;
+			}
+			sampleBusy(time, c);
+			break;
+		case MISS:
+			_misses++;
+			_missRate.add(time);
+			_firstOffers.remove(customer);
+			sampleBusy(time, c);
+			break;
+		case PICKUP:
+			_pickupWait.add(a);
+			_pickupWaitSum += a;
+			break;
+		case DELIVERY:
+			_loadedFuel += b;
+			break;
+		case FUEL_TOTAL:
+			_totalFuel += a;
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Integrate the previous busy fraction up to now and start a new step.
+	 */
+	private void sampleBusy(long time, double busy) {
+		if (_firstSample < 0)
+			_firstSample = time;
+		else
+			_busyIntegral += _busy * (time - _lastSample);
+		_lastSample = time;
+		_busy = busy;
+	}
+
+	public void flush() { }
+
+	public void close() { }
+
+	/**
+	 * Take a snapshot of the statistics so far.
+	 */
+	public synchronized Report snapshot() {
+		double utilisation = Double.NaN;
+		if (_firstSample >= 0)
+			utilisation = _time == _firstSample ? _busy
+					: (_busyIntegral + _busy * (_time - _lastSample)) / (_time - _firstSample);
+		return new Report(_time, _requests, _accepts, _misses,
+				new Report.Distribution(_confirmLatency, _confirmLatencySum, 1e-3),
+				new Report.Distribution(_pickupWait, _pickupWaitSum, 1e-3),
+				_totalFuel > 0 ? 1 - _loadedFuel / _totalFuel : Double.NaN,
+				utilisation,
+				_requestRate.getRate(_time, HOUR), _acceptRate.getRate(_time, HOUR), _missRate.getRate(_time, HOUR));
+	}
+
+	/**
+	 * Publish these statistics through JMX, replacing those of an earlier run.
+	 */
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("taxi:type=Statistics");
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(new StatisticsMXBean() {
+				public long getRequests() {
+					return snapshot().getRequests();
+				}
+
+				public double getAcceptanceRatio() {
+					return snapshot().getAcceptanceRatio();
+				}
+
+				public double getConfirmLatencyMedian() {
+					return snapshot().getConfirmLatency().getMedian();
+				}
+
+				public double getConfirmLatencyP99() {
+					return snapshot().getConfirmLatency().getP99();
+				}
+
+				public double getPickupWaitMedian() {
+					return snapshot().getPickupWait().getMedian();
+				}
+
+				public double getPickupWaitP99() {
+					return snapshot().getPickupWait().getP99();
+				}
+
+				public double getUtilisation() {
+					return snapshot().getUtilisation();
+				}
+
+				public double getEmptyRatio() {
+					return snapshot().getEmptyRatio();
+				}
+
+				public double getRequestsPerHour() {
+					return snapshot().getRequestRate();
+				}
+
+				public double getMissesPerHour() {
+					return snapshot().getMissRate();
+				}
+
+				public String getReport() {
+					return snapshot().format();
+				}
+			}, name);
+		} catch (JMException e) {
+			System.err.println("Could not publish the statistics through JMX: " + e.getMessage());
+		}
+	}
+}
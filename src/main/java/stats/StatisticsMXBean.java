@@ -0,0 +1,32 @@
+package stats;
+
+/**
+ * JMX view on the statistics of the running simulation. Times are in seconds.
+ */
+public interface StatisticsMXBean {
+
+	long getRequests();
+
+	double getAcceptanceRatio();
+
+	double getConfirmLatencyMedian();
+
+	double getConfirmLatencyP99();
+
+	double getPickupWaitMedian();
+
+	double getPickupWaitP99();
+
+	double getUtilisation();
+
+	double getEmptyRatio();
+
+	double getRequestsPerHour();
+
+	double getMissesPerHour();
+
+	/**
+	 * The full report, as text.
+	 */
+	String getReport();
+}
@@ -0,0 +1,167 @@
+package stats;
+
+import java.util.Arrays;
+
+/**
+ * A merging t-digest: estimates quantiles of a stream of values in a fixed amount of memory.
+ * <p>
+ * Values are collected in a buffer, which is sorted and merged into a list of centroids when it is
+ * full. Centroids near the median may absorb many values, centroids near the tails only a few, so
+ * the extreme quantiles stay accurate. The number of centroids is at most about the compression.
+ * <p>
+ * A digest is not thread safe.
+ */
+public class TDigest {
+
+	public static final double DEFAULT_COMPRESSION = 100;
+
+	private final double _compression;
+	private final double[] _means;
+	private final double[] _weights;
+	private int _centroids = 0;
+	private final double[] _buffer;
+	private int _buffered = 0;
+	// Scratch space for merging the buffer with the centroids.
+	private final double[] _mergeMeans;
+	private final double[] _mergeWeights;
+	private double _total = 0;
+	private double _min = Double.POSITIVE_INFINITY;
+	private double _max = Double.NEGATIVE_INFINITY;
+
+	public TDigest() {
+		this(DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param compression Trades accuracy for memory, about the number of centroids that are kept.
+	 */
+	public TDigest(double compression) {
+		_compression = compression;
+		int capacity = 2 * (int)Math.ceil(compression) + 10;
+		_means = new double[capacity];
+		_weights = new double[capacity];
+		_buffer = new double[5 * (int)Math.ceil(compression)];
+		_mergeMeans = new double[capacity + _buffer.length];
+		_mergeWeights = new double[capacity + _buffer.length];
+	}
+
+	/**
+	 * Add a value.
+	 */
+	public void add(double x) {
+		if (Double.isNaN(x))
+			return;
+		if (_buffered == _buffer.length)
+			merge();
+		_buffer[_buffered++] = x;
+		_total++;
+		if (x < _min)
+			_min = x;
+		if (x > _max)
+			_max = x;
+	}
+
+	public long getCount() {
+		return (long)_total;
+	}
+
+	public double getMin() {
+		return _total == 0 ? Double.NaN : _min;
+	}
+
+	public double getMax() {
+		return _total == 0 ? Double.NaN : _max;
+	}
+
+	/**
+	 * Estimate a quantile.
+	 * @param q The quantile, between 0 and 1.
+	 * @return The estimated value, or NaN if no values were added.
+	 */
+	public double getQuantile(double q) {
+		merge();
+		if (_centroids == 0)
+			return Double.NaN;
+		if (_centroids == 1)
+			return _means[0];
+		double index = q * _total;
+		// The extreme values are known exactly, and are single values at the ends of the first and last centroid.
+		if (index < 1)
+			return _min;
+		if (index > _total - 1)
+			return _max;
+		// Between the minimum and the center of the first centroid.
+		double first = _weights[0] / 2;
+		if (index < first)
+			return _min + (index - 1) / (first - 1) * (_means[0] - _min);
+		// Between the centers of two centroids.
+		double cumulative = first;
+		for (int i = 0; i + 1 < _centroids; i++) {
+			double step = (_weights[i] + _weights[i+1]) / 2;
+			if (cumulative + step > index)
+				return _means[i] + (index - cumulative) / step * (_means[i+1] - _means[i]);
+			cumulative += step;
+		}
+		// Between the center of the last centroid and the maximum.
+		double last = _weights[_centroids-1] / 2;
+		if (last <= 1)
+			return _max;
+		return _means[_centroids-1] + (index - cumulative) / (last - 1) * (_max - _means[_centroids-1]);
+	}
+
+	/**
+	 * Merge the buffered values into the centroids.
+	 */
+	private void merge() {
+		if (_buffered == 0)
+			return;
+		Arrays.sort(_buffer, 0, _buffered);
+		// Merge the sorted buffer with the sorted centroids.
+		int n = 0;
+		int b = 0;
+		int c = 0;
+		while (b < _buffered || c < _centroids) {
+			if (c == _centroids || (b < _buffered && _buffer[b] < _means[c])) {
+				_mergeMeans[n] = _buffer[b++];
+				_mergeWeights[n++] = 1;
+			} else {
+				_mergeMeans[n] = _means[c];
+				_mergeWeights[n++] = _weights[c++];
+			}
+		}
+		_buffered = 0;
+
+		// Greedily combine neighbours while they stay within the size limit of their quantile.
+		_centroids = 0;
+		double before = 0;
+		double limit = limit(0);
+		double mean = _mergeMeans[0];
+		double weight = _mergeWeights[0];
+		for (int i = 1; i < n; i++) {
+			if ((before + weight + _mergeWeights[i]) / _total <= limit) {
+				weight += _mergeWeights[i];
+				mean += (_mergeMeans[i] - mean) * _mergeWeights[i] / weight;
+			} else {
+				_means[_centroids] = mean;
+				_weights[_centroids++] = weight;
+				before += weight;
+				limit = limit(before / _total);
+				mean = _mergeMeans[i];
+				weight = _mergeWeights[i];
+			}
+		}
+		_means[_centroids] = mean;
+		_weights[_centroids++] = weight;
+	}
+
+	/**
+	 * The highest quantile a centroid that starts at a quantile may reach, using the scale function
+	 * k(q) = compression/(2 pi) asin(2q - 1), which allows one unit of k per centroid.
+	 */
+	private double limit(double q) {
+		double k = _compression / (2 * Math.PI) * Math.asin(Math.min(1, 2 * q - 1)) + 1;
+		if (k >= _compression / 4)
+			return 1;
+		return (Math.sin(k * 2 * Math.PI / _compression) + 1) / 2;
+	}
+}
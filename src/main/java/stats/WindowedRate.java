@@ -0,0 +1,65 @@
+package stats;
+
+import java.util.Arrays;
+
+/**
+ * Counts events in a sliding window of simulated time, kept as a ring of fixed-length buckets, so
+ * the rate over the last hour needs no more memory than the rate over the last minute.
+ * <p>
+ * Events must be added in order of time. A window is not thread safe.
+ */
+public class WindowedRate {
+
+	private final long _bucketLength;
+	private final long[] _slots;		// The bucket number every slot currently counts, -1 when unused.
+	private final long[] _counts;
+
+	/**
+	 * @param window The length of the window, in ms.
+	 * @param buckets The number of buckets the window is split in.
+	 */
+	public WindowedRate(long window, int buckets) {
+		_bucketLength = Math.max(1, window / buckets);
+		_slots = new long[buckets];
+		_counts = new long[buckets];
+		Arrays.fill(_slots, -1);
+	}
+
+	/**
+	 * Count an event.
+	 * @param time The time of the event, in ms.
+	 */
+	public void add(long time) {
+		long bucket = time / _bucketLength;
+		int i = (int)(bucket % _slots.length);
+		if (_slots[i] != bucket) {
+			_slots[i] = bucket;
+			_counts[i] = 0;
+		}
+		_counts[i]++;
+	}
+
+	/**
+	 * Get the number of events in the window that ends at a time.
+	 * @param now The end of the window, in ms.
+	 */
+	public long getCount(long now) {
+		long bucket = now / _bucketLength;
+		long count = 0;
+		for (int i = 0; i < _slots.length; i++)
+			if (_slots[i] > bucket - _slots.length && _slots[i] <= bucket)
+				count += _counts[i];
+		return count;
+	}
+
+	/**
+	 * Get the rate of the events in the window that ends at a time. At the start of a run, when
+	 * less time passed than the window is long, the rate is taken over the time that did pass.
+	 * @param now The end of the window, in ms.
+	 * @param per The time unit of the rate, in ms, e.g. an hour for events per hour.
+	 */
+	public double getRate(long now, long per) {
+		long window = Math.min(_bucketLength * _slots.length, now);
+		return window <= 0 ? 0 : (double)getCount(now) * per / window;
+	}
+}
@@ -0,0 +1,107 @@
+package taxi;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.github.rinde.rinsim.core.Simulator;
+import com.github.rinde.rinsim.core.model.time.TickListener;
+import com.github.rinde.rinsim.core.model.time.TimeLapse;
+
+/**
+ * Checks that idle taxis don't allocate: a city without customers, in which no taxi is pushed
+ * hard enough to move, is run with a fleet and with twice that fleet, and the bytes allocated by
+ * the simulation thread are measured over a number of ticks after a warm-up. The difference between
+ * both runs is what the extra taxis allocated, so the allocations of the simulator itself cancel out.
+ * <p>
+ * Options, as <code>--key=value</code>:
+ * <ul>
+ * <li>Any {@link Scenario} setting, <code>taxis</code> is the smaller fleet, default 200.</li>
+ * <li><code>warmup</code>: the ticks to run before measuring, default 600.</li>
+ * <li><code>ticks</code>: the ticks to measure, default 600.</li>
+ * <li><code>maxBytes</code>: the most a taxi may allocate per tick, default 16.</li>
+ * </ul>
+ * The exit code is 0 when the taxis allocate at most <code>maxBytes</code> per tick and 1 otherwise.
+ */
+public final class AllocationCheck {
+
+	private AllocationCheck() {
+
+	}
+
+	public static void main(String[] args) {
+		Map<String, String> settings = new LinkedHashMap<String, String>();
+		settings.put("taxis", "200");
+		int warmup = 600, ticks = 600;
+		double maxBytes = 16;
+		for (String arg : args) {
+			int split = arg.indexOf('=');
+			if (!arg.startsWith("--") || split < 0)
+				throw new IllegalArgumentException("Expected --key=value, got " + arg + ".");
+			String key = arg.substring(2, split), value = arg.substring(split + 1);
+			if (key.equals("warmup"))
+				warmup = Integer.parseInt(value);
+			else if (key.equals("ticks"))
+				ticks = Integer.parseInt(value);
+			else if (key.equals("maxBytes"))
+				maxBytes = Double.parseDouble(value);
+			else
+				settings.put(key, value);
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			System.err.println("This JVM can't measure allocations per thread.");
+			System.exit(2);
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		int taxis = Integer.parseInt(settings.get("taxis"));
+		long small = measure(settings, taxis, warmup, ticks);
+		long large = measure(settings, 2*taxis, warmup, ticks);
+		double perTaxiTick = (double)(large - small) / taxis / ticks;
+		System.out.println(String.format(Locale.ROOT, "%d taxis: %d bytes, %d taxis: %d bytes, %.2f bytes per taxi per tick.",
+				taxis, small, 2*taxis, large, perTaxiTick));
+		System.exit(perTaxiTick > maxBytes ? 1 : 0);
+	}
+
+	/**
+	 * Run a city of idle taxis and measure what the simulation thread allocates.
+	 * @return The bytes allocated during the measured ticks.
+	 */
+	static long measure(Map<String, String> settings, int taxis, final int warmup, final int ticks) {
+		Scenario scenario = new Scenario();
+		for (Map.Entry<String, String> e : settings.entrySet())
+			scenario.set(e.getKey(), e.getValue());
+		scenario.set("taxis", Integer.toString(taxis));
+		scenario.set("customersPerDay", "0");
+		scenario.set("redistributionThreshold", "Infinity");
+		scenario.set("events", "none");
+		scenario.set("endTime", Long.toString(Long.MAX_VALUE / 2));
+		final Simulator simulator = scenario.build();
+		final long[] bytes = new long[2];
+		// Added after the scenario, so it ticks after the taxis and the measured ticks are whole ticks.
+		simulator.addTickListener(new TickListener() {
+			private int _tick = 0;
+
+			public void tick(TimeLapse time) {
+				if (_tick == warmup)
+					bytes[0] = allocated();
+				else if (_tick == warmup + ticks) {
+					bytes[1] = allocated();
+					simulator.stop();
+				}
+				_tick++;
+			}
+
+			public void afterTick(TimeLapse time) { }
+		});
+		simulator.start();
+		return bytes[1] - bytes[0];
+	}
+
+	private static long allocated() {
+		return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
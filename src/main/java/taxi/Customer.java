@@ -1,7 +1,11 @@
 package taxi;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
 import org.apache.commons.math3.distribution.MultivariateRealDistribution;
-import org.apache.commons.math3.distribution.NormalDistribution;
 import org.apache.commons.math3.random.RandomGenerator;
 
 import com.github.rinde.rinsim.core.Simulator;
@@ -14,18 +18,25 @@ import com.github.rinde.rinsim.core.model.pdp.PDPModel;
 import com.github.rinde.rinsim.core.model.pdp.Parcel;
 import com.github.rinde.rinsim.core.model.pdp.ParcelDTO;
 import com.github.rinde.rinsim.core.model.road.RoadModel;
-import com.github.rinde.rinsim.core.model.time.TickListener;
 import com.github.rinde.rinsim.core.model.time.TimeLapse;
 import com.github.rinde.rinsim.geom.Point;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 
+import decisions.DecisionLog;
+import events.EventSink;
+import events.EventType;
 import gradient.GradientModel;
 import taxi.Taxi.TaxiState;
 import utils.GraphUtils;
 import utils.MultivariateEmpiricalDistribution;
+import utils.RandomStreams;
 
-class Customer extends Parcel implements CommUser, TickListener {
+/**
+ * A customer requesting a taxi. Customers are not tick listeners themselves, they are handled by
+ * the {@link CustomerManager} whenever they have something to do.
+ */
+class Customer extends Parcel implements CommUser {
 
 	private static final double RANGE = 500000d;					// Comm. range, 50km.
 	private static final double RELIABILITY = 1d;
@@ -33,22 +44,49 @@ class Customer extends Parcel implements CommUser, TickListener {
 	private static final double PATIENCE_VARIANCE = 1*60*1000d;		// The mean Customer patience (in terms of offers).
 	private static final double MIN_DISTANCE = 5000d;				// The minimum that a customer will take a taxi for.
 	private static final double MIN_PATIENCE = 4*60*1000d;			// The minimum time any Customer is willing to wait.
-	private static NormalDistribution PATIENCE_GENERATOR = new NormalDistribution(PATIENCE_MEAN, PATIENCE_VARIANCE);
+	private static int _idGen = 0;
+	// Orders offer messages from the best, i.e. shortest, offer to the worst.
+	private static final Comparator<Message> BEST_OFFER_FIRST = new Comparator<Message>() {
+		public int compare(Message a, Message b) {
+			return Double.compare(((Messages.OfferMessage)a.getContents()).getOffer(),
+					((Messages.OfferMessage)b.getContents()).getOffer());
+		}
+	};
 
+	private final int _id;
 	private double _patience;
 	private double _pathLength;
 	private double _savedOffer;
 	private int _numOffers;			// Number of offers received.
+	private double _bestOffer;		// The lowest offer received, or lower bound of a declined one.
+	// The offers of the current request, best first once all are in, to fall back on when an accept is refused.
+	private final List<Message> _offers = new ArrayList<Message>();
+	private int _nextOffer;			// The offer to fall back on next.
+	private long _requestTime = -1;	// Time of the first request.
+	private int _requests = 0;		// Number of requests sent.
+	private boolean _recorded = false;	// Whether the patience and path length were replayed from a decision log.
 	private CommDevice _comm;
 	private Simulator _sim;
 	private CustomerState _state = CustomerState.IDLE;
-	private int _ticksSinceMissed = 0;
+	private CustomerManager _manager;
+	private final int _numTaxis;	// The number of offers to wait for.
+	private final boolean _fixedDestination;	// Whether to go to the delivery location instead of a random node.
+	private final RandomGenerator _rng;
 	
-	public Customer(ParcelDTO buildDTO, Simulator simulator) {
+	/**
+	 * @param fixedDestination Whether the customer requests a ride to the delivery location of the parcel,
+	 * e.g. when replaying a trace, instead of to a random node.
+	 * @param rng The customer's own random stream, see {@link RandomStreams}.
+	 */
+	public Customer(ParcelDTO buildDTO, Simulator simulator, int numTaxis, boolean fixedDestination, RandomGenerator rng) {
 		super(buildDTO);
 		_sim = simulator;
+		_numTaxis = numTaxis;
+		_fixedDestination = fixedDestination;
+		_rng = rng;
+		_id = _idGen++;
 		do {
-			_patience = PATIENCE_GENERATOR.sample();
+			_patience = PATIENCE_MEAN + PATIENCE_VARIANCE*_rng.nextGaussian();
 		} while (_patience < MIN_PATIENCE);
 	}
 
@@ -59,8 +97,10 @@ class Customer extends Parcel implements CommUser, TickListener {
 
 		// Add occurrence to empirical distribution.
 		final Point p = getPosition().get();
-		if (dist instanceof MultivariateEmpiricalDistribution)
+		if (dist instanceof MultivariateEmpiricalDistribution) {
 			((MultivariateEmpiricalDistribution)dist).load(new double[]{p.x,p.y});
+			gm.fieldChanged();
+		}
 	}
 
 	public Optional<Point> getPosition() {
@@ -75,66 +115,149 @@ class Customer extends Parcel implements CommUser, TickListener {
 		_comm = builder.setMaxRange(RANGE).setReliability(RELIABILITY).build();
 	}
 
-	private void sendRequest() {
-		final RandomGenerator rng = _sim.getRandomGenerator();
+	/**
+	 * Pick a random destination that is far enough away to take a taxi, and remember the length of the path to it.
+	 * @param from The position of the customer.
+	 * @param rng The random generator to pick with.
+	 * @return The destination.
+	 */
+	private Point getRandomDestination(Point from, RandomGenerator rng) {
+		// Make sure you don't go to the same point. Instead of drawing random nodes until one is far enough away,
+		// draw uniformly from the nodes known to be far enough, which gives the same distribution for one search.
+		// The node table has the nodes in the order of the graph, so the same node is drawn as when iterating the graph.
+		double[] lengths = GraphUtils.getShortestPathLengths(from);
+		List<Integer> destinations = new ArrayList<Integer>();
+		for (int n = 0; n < lengths.length; n++)
+			if (lengths[n] >= MIN_DISTANCE && lengths[n] < Double.POSITIVE_INFINITY)
+				destinations.add(n);
+		if (destinations.isEmpty())
+			throw new IllegalStateException("No node is at least " + MIN_DISTANCE + " away from " + from + ".");
+		int to = destinations.get(rng.nextInt(destinations.size()));
+		_pathLength = lengths[to];
+		return GraphUtils.getNode(to);
+	}
+
+	private void sendRequest(long time) {
 		final RoadModel rm = _sim.getModelProvider().getModel(RoadModel.class);
 		Point from, to;
 		from = rm.getPosition(this);
+		if (_requestTime < 0)
+			_requestTime = time;
 
-		// Make sure you don't go to the same point.
-		do {
-			to = rm.getRandomPosition(rng);
+		if (_recorded)
+			to = getDeliveryLocation();
+		else if (_fixedDestination) {
+			to = getDeliveryLocation();
 			_pathLength = GraphUtils.getShortestPathLength(from, to);
-		} while (_pathLength < MIN_DISTANCE);
-			
-		_comm.broadcast(new Messages.RequestMessage(from, to));
+		} else
+			to = getRandomDestination(from, _rng);
+
+		_comm.broadcast(new Messages.RequestMessage(from, to, getMaxOffer()));
+		EventSink.log(EventType.REQUEST, time, _id, -1, _pathLength);
+		DecisionLog.request(time, _id, _requests++, from, getDeliveryLocation(), _pathLength, _patience);
 		_numOffers = 0;
+		_bestOffer = Double.POSITIVE_INFINITY;
+		_offers.clear();
 		_state = CustomerState.WAITING_FOR_OFFERS;
 	}
 
-	public void tick(TimeLapse time) {
+	/**
+	 * Accept the best offer that hasn't been tried yet, if the customer is patient enough for it.
+	 * @param time The current time.
+	 * @return Whether an offer was accepted.
+	 */
+	private boolean acceptNextOffer(long time) {
+		if (_nextOffer >= _offers.size())
+			return false;
+		Message message = _offers.get(_nextOffer);
+		Messages.OfferMessage offerMessage = (Messages.OfferMessage)message.getContents();
+		if (!isPatientFor(offerMessage.getOffer()))
+			return false;
+		_nextOffer++;
+		_savedOffer = offerMessage.getOffer();
+		_comm.send(new Messages.AcceptMessage(offerMessage, getMaxOffer()), message.getSender());
+		DecisionLog.accept(time, _id, ((Taxi)message.getSender())._id, offerMessage.getId(), _savedOffer);
+		_state = CustomerState.WAITING_FOR_ACCEPTANCE;
+		return true;
+	}
+
+	/**
+	 * Check whether the customer is willing to wait for a taxi with the given offer.
+	 * @param offer The distance the taxi has to drive before the pickup.
+	 */
+	private boolean isPatientFor(double offer) {
+		return offer < getMaxOffer();
+	}
+
+	/**
+	 * Get the offer at which the customer runs out of patience, taxis only make offers below it.
+	 */
+	private double getMaxOffer() {
+		// ms*dm/h/(ms/h) = dm
+		return _patience*100*Taxi.SPEED/(60*60*1000);
+	}
+
+	/**
+	 * Use the patience and path length that were recorded for this customer in a decision log,
+	 * instead of drawing them. Must be called before the customer is registered.
+	 */
+	void setRecorded(double patience, double pathLength) {
+		_patience = patience;
+		_pathLength = pathLength;
+		_recorded = true;
+	}
+
+	/**
+	 * Set the manager that handles this customer.
+	 */
+	void setManager(CustomerManager manager) {
+		_manager = manager;
+	}
+
+	/**
+	 * Signal that the customer was sent a message, so it is handled in the next tick.
+	 */
+	void wake() {
+		if (_manager != null)
+			_manager.wake(this);
+	}
+
+	/**
+	 * Handle the customer: send a request when it has none yet, and respond to its messages.
+	 * Called by the {@link CustomerManager} in the ticks in which it has something to do.
+	 * @param time The current time lapse.
+	 */
+	void handle(TimeLapse time) {
 		if (_state == CustomerState.IDLE)
-			sendRequest();
-		else if (_state == CustomerState.MISSED) {
-			_ticksSinceMissed++;
-			if (_ticksSinceMissed == 60)
-				_sim.unregister(this);
-		} else {
+			sendRequest(time.getTime());
+		else if (_state != CustomerState.MISSED) {
 			// Check messages.
 			ImmutableList<Message> messages = _comm.getUnreadMessages();
 
 			// If waiting for offers, check if there are offers.
 			if (_state == CustomerState.WAITING_FOR_OFFERS) {
-				Message bestOfferMessage = null;
-				double bestOffer = Double.POSITIVE_INFINITY;
-				
 				for (Message message : messages) {
 					MessageContents contents = message.getContents();
 					// Make sure it's an offer message.
 					if (contents instanceof Messages.OfferMessage) {
+						Messages.OfferMessage offer = (Messages.OfferMessage)contents;
 						_numOffers++;
-						Messages.OfferMessage offerMessage = (Messages.OfferMessage)contents;
-						// Check if the new offer is better.						
-						if (offerMessage.getOffer() < bestOffer) {
-							bestOfferMessage = message;
-							bestOffer = offerMessage.getOffer();
-						}
+						_bestOffer = Math.min(_bestOffer, offer.getOffer());
+						if (!offer.isDeclined())
+							_offers.add(message);
 					}
 				}
-				if (_numOffers == TaxiSimulator.NUM_TAXIS) {
-					// dm/(dm/h)*ms/h = ms
-					if (bestOffer/100/Taxi.SPEED*60*60*1000 < _patience) {
-						_savedOffer = bestOffer;
-						Messages.OfferMessage offerMessage = (Messages.OfferMessage)bestOfferMessage.getContents();
-						_comm.send(new Messages.AcceptMessage(offerMessage.getId()), bestOfferMessage.getSender());
-						_state = CustomerState.WAITING_FOR_ACCEPTANCE;
-					}
-					else {
+				if (_numOffers == _numTaxis) {
+					// The sort is stable, so equal offers keep the order in which they arrived.
+					Collections.sort(_offers, BEST_OFFER_FIRST);
+					_nextOffer = 0;
+					if (!acceptNextOffer(time.getTime())) {
 						// If no offer is good enough, the user gives up and uses a different method.
 						_state = CustomerState.MISSED;
-						_ticksSinceMissed++;
+						_manager.missed(this);
 						
-						System.out.println(time.getTime()+",0,"+_pathLength+","+bestOffer+","+idlePercentage());
+						EventSink.log(EventType.MISS, time.getTime(), _id, -1, _pathLength, _bestOffer, idlePercentage());
+						DecisionLog.miss(time.getTime(), _id, _bestOffer);
 					}
 				}
 			}
@@ -146,10 +269,14 @@ class Customer extends Parcel implements CommUser, TickListener {
 					// Make sure it's an offer message.
 					if (contents instanceof Messages.ConfirmMessage) {
 						_state = CustomerState.WAITING_FOR_PICKUP;
-						System.out.println(time.getTime()+",1,"+_pathLength+","+_savedOffer+","+idlePercentage());
+						_savedOffer = ((Messages.ConfirmMessage)contents).getOffer();
+						_offers.clear();
+						EventSink.log(EventType.ACCEPT, time.getTime(), _id, ((Taxi)message.getSender())._id,
+								_pathLength, _savedOffer, idlePercentage());
 					}
-					else if (contents instanceof Messages.NoLongerAvailableMessage)
-						sendRequest();
+					// Fall back on the next best offer, only ask all taxis again when there is none left.
+					else if (contents instanceof Messages.NoLongerAvailableMessage && !acceptNextOffer(time.getTime()))
+						sendRequest(time.getTime());
 				}
 			}
 		}
@@ -161,10 +288,28 @@ class Customer extends Parcel implements CommUser, TickListener {
 		for (Taxi t : getRoadModel().getObjectsOfType(Taxi.class))
 			if (t.getState() != TaxiState.IDLE)
 				idleTaxis++;
-		return (double)idleTaxis/TaxiSimulator.NUM_TAXIS;
+		return (double)idleTaxis/_numTaxis;
+	}
+
+	public int getId() {
+		return _id;
 	}
 
-	public void afterTick(TimeLapse timeLapse) { }
+	/**
+	 * Get the time at which the customer first requested a taxi.
+	 * @return The time of the first request, or -1 if there was none yet.
+	 */
+	public long getRequestTime() {
+		return _requestTime;
+	}
+
+	/**
+	 * Get the length of the path to the requested destination.
+	 * @return The length of the path to the requested destination.
+	 */
+	public double getPathLength() {
+		return _pathLength;
+	}
 	
 	public CustomerState getState() {
 		return _state;
@@ -0,0 +1,97 @@
+package taxi;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import com.github.rinde.rinsim.core.Simulator;
+import com.github.rinde.rinsim.core.model.time.TickListener;
+import com.github.rinde.rinsim.core.model.time.TimeLapse;
+
+import utils.TimerWheel;
+
+/**
+ * Ticks all customers, instead of every customer being a tick listener of its own.
+ * <p>
+ * Most customers have nothing to do in most ticks: they wait for offers, for a confirmation or
+ * for their taxi. The manager only handles customers that have something to do: new customers,
+ * customers that were sent a message and missed customers whose time is up. New customers are
+ * handled in the tick in which they were added. Messages are only delivered at the end of a tick, so
+ * a customer that is sent a message is only handled in the next tick, after the tick has ended.
+ * <p>
+ * The manager must be added as a tick listener after the taxis, so that customers see the same
+ * taxi states as when they were ticked themselves. Customers are handled in the order in which
+ * they were created, like the tick listeners they replace.
+ */
+class CustomerManager implements TickListener {
+
+	private static final int MISSED_TICKS = 60;		// The number of ticks a missed customer stays visible.
+
+	private final Simulator _sim;
+	private TreeSet<Customer> _current = createSet();	// The customers to handle in this tick.
+	private TreeSet<Customer> _woken = createSet();		// The customers sent a message in this tick.
+	private final TimerWheel<Customer> _missed = new TimerWheel<Customer>();
+	private final List<Customer> _expired = new ArrayList<Customer>();
+	private long _tick = 0;
+
+	CustomerManager(Simulator simulator) {
+		_sim = simulator;
+	}
+
+	private static TreeSet<Customer> createSet() {
+		return new TreeSet<Customer>(new Comparator<Customer>() {
+			public int compare(Customer a, Customer b) {
+				return a.getId() < b.getId() ? -1 : (a.getId() == b.getId() ? 0 : 1);
+			}
+		});
+	}
+
+	/**
+	 * Start managing a customer that was registered in the simulator. It sends its request in this tick.
+	 * @param customer The customer.
+	 */
+	void add(Customer customer) {
+		customer.setManager(this);
+		_current.add(customer);
+	}
+
+	/**
+	 * Signal that a customer was sent a message, so it must be handled in the next tick, once the
+	 * message has been delivered.
+	 * @param customer The customer.
+	 */
+	void wake(Customer customer) {
+		_woken.add(customer);
+	}
+
+	/**
+	 * Signal that a customer missed its taxi, it is unregistered after a while.
+	 * @param customer The customer.
+	 */
+	void missed(Customer customer) {
+		// Counting the tick in which it was missed.
+		_missed.schedule(customer, _tick + MISSED_TICKS - 1);
+	}
+
+	public void tick(TimeLapse time) {
+		_missed.expire(_tick, _expired);
+		for (Customer c : _expired) {
+			_current.remove(c);
+			_sim.unregister(c);
+		}
+		_expired.clear();
+
+		for (Customer c : _current)
+			c.handle(time);
+		_current.clear();
+		_tick++;
+	}
+
+	public void afterTick(TimeLapse timeLapse) {
+		// The messages of this tick are delivered now, so the customers they were sent to are handled next tick.
+		TreeSet<Customer> woken = _woken;
+		_woken = _current;
+		_current = woken;
+	}
+}
@@ -15,45 +15,44 @@
  */
 package taxi;
 
-import java.util.Set;
-
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.GC;
 
 import com.github.rinde.rinsim.core.model.DependencyProvider;
 import com.github.rinde.rinsim.core.model.ModelBuilder.AbstractModelBuilder;
-import com.github.rinde.rinsim.core.model.road.RoadModel;
-import com.github.rinde.rinsim.geom.Point;
 import com.github.rinde.rinsim.ui.renderers.CanvasRenderer.AbstractCanvasRenderer;
 import com.github.rinde.rinsim.ui.renderers.ViewPort;
 import com.google.auto.value.AutoValue;
 
-import taxi.Customer.CustomerState;
+import metrics.Metrics;
+import metrics.Phase;
 
 public class CustomerRenderer extends AbstractCanvasRenderer {
 
-	private RoadModel _rm;
+	private final SnapshotModel _snapshots;
 	
-	CustomerRenderer(RoadModel rm) {
-		_rm = rm;
+	CustomerRenderer(SnapshotModel snapshots) {
+		_snapshots = snapshots;
 	}
 
 	public void renderStatic(GC gc, ViewPort vp) { }
 	
 	public void renderDynamic(GC gc, ViewPort vp, long time) {
-		final Set<Customer> customers = _rm.getObjectsOfType(Customer.class);
+		long start = Metrics.start();
+		final RenderSnapshot snapshot = _snapshots.acquire();
+		if (snapshot == null)
+			return;
 
-		synchronized (customers) {
-			for (Customer c : customers) {
-				if (c.getState() == CustomerState.MISSED) {
-					Point p = c.getPickupLocation();
-					gc.setLineWidth(2);
-					gc.setForeground(gc.getDevice().getSystemColor(SWT.COLOR_DARK_RED));
-					gc.drawLine(vp.toCoordX(p.x)-10, vp.toCoordY(p.y)-10, vp.toCoordX(p.x)+10, vp.toCoordY(p.y)+10);
-					gc.drawLine(vp.toCoordX(p.x)-10, vp.toCoordY(p.y)+10, vp.toCoordX(p.x)+10, vp.toCoordY(p.y)-10);
-				}
-			}
+		// Mark the customers that missed their taxi.
+		for (int i = 0; i < snapshot.getNumMissed(); i++) {
+			int x = vp.toCoordX(snapshot.getMissedX(i));
+			int y = vp.toCoordY(snapshot.getMissedY(i));
+			gc.setLineWidth(2);
+			gc.setForeground(gc.getDevice().getSystemColor(SWT.COLOR_DARK_RED));
+			gc.drawLine(x-10, y-10, x+10, y+10);
+			gc.drawLine(x-10, y+10, x+10, y-10);
 		}
+		Metrics.stop(Phase.RENDER_CUSTOMERS, start);
 	}
 
 	static Builder builder() {
@@ -64,12 +63,11 @@ public class CustomerRenderer extends AbstractCanvasRenderer {
 	abstract static class Builder extends AbstractModelBuilder<CustomerRenderer, Void> {
  
 		Builder() {
-			setDependencies(RoadModel.class);
+			setDependencies(SnapshotModel.class);
 		}
 
 		public CustomerRenderer build(DependencyProvider dependencyProvider) {
-			final RoadModel rm = dependencyProvider.get(RoadModel.class);
-			return new CustomerRenderer(rm);
+			return new CustomerRenderer(dependencyProvider.get(SnapshotModel.class));
 		}
 	}
 }
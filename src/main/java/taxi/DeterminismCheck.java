@@ -0,0 +1,111 @@
+package taxi;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Checks that a scenario is reproducible: it is run twice, each time in a fresh JVM, and the event
+ * logs of both runs must be byte for byte identical.
+ * <p>
+ * Options, as <code>--key=value</code>:
+ * <ul>
+ * <li>Any {@link Scenario} setting, used by both runs. The seed defaults to 1.</li>
+ * <li><code>second.&lt;key&gt;</code> overrides a setting for the second run only, e.g.
+ * <code>--second.offerThreads=8</code> to check that parallel offers give the same results.</li>
+ * <li><code>jvmArgs</code>: extra arguments for the JVMs.</li>
+ * </ul>
+ * The exit code is 0 when the logs are identical and 1 when they are not.
+ */
+public final class DeterminismCheck {
+
+	private static final String SECOND_PREFIX = "second.";
+
+	private DeterminismCheck() {
+
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Map<String, String> first = new LinkedHashMap<String, String>();
+		Map<String, String> overrides = new LinkedHashMap<String, String>();
+		String jvmArgs = "";
+		first.put("seed", "1");
+		for (String arg : args) {
+			int split = arg.indexOf('=');
+			if (!arg.startsWith("--") || split < 0)
+				throw new IllegalArgumentException("Expected --key=value, got " + arg + ".");
+			String key = arg.substring(2, split), value = arg.substring(split + 1);
+			if (key.equals("jvmArgs"))
+				jvmArgs = value.trim();
+			else if (key.startsWith(SECOND_PREFIX))
+				overrides.put(key.substring(SECOND_PREFIX.length()), value);
+			else
+				first.put(key, value);
+		}
+		// CSV logs only depend on the events, binary logs also on when the writer flushed its blocks.
+		first.put("eventFormat", "csv");
+		Map<String, String> second = new LinkedHashMap<String, String>(first);
+		second.putAll(overrides);
+
+		File a = File.createTempFile("determinism-a", ".events");
+		File b = File.createTempFile("determinism-b", ".events");
+		try {
+			run(first, a, jvmArgs);
+			run(second, b, jvmArgs);
+			long difference = compare(a, b);
+			if (difference < 0)
+				System.err.println("Identical: " + a.length() + " bytes of events.");
+			else {
+				System.err.println("Runs differ at byte " + difference + " of the event logs ("
+						+ a.length() + " and " + b.length() + " bytes).");
+				System.exit(1);
+			}
+		} finally {
+			a.delete();
+			b.delete();
+		}
+	}
+
+	/**
+	 * Run a scenario headless in a new JVM, writing its events to a file.
+	 */
+	private static void run(Map<String, String> settings, File events, String jvmArgs) throws IOException, InterruptedException {
+		settings.put("events", events.getPath());
+		System.err.println("Running " + settings);
+		Process process = new ProcessBuilder(SweepRunner.command(HeadlessSimulator.class, settings, jvmArgs))
+				.redirectOutput(Redirect.INHERIT)
+				.redirectError(Redirect.INHERIT)
+				.start();
+		int exit = process.waitFor();
+		if (exit != 0)
+			throw new IOException("Run failed with exit code " + exit + ".");
+	}
+
+	/**
+	 * Compare two files.
+	 * @return The offset of the first byte that differs, or -1 if the files are identical.
+	 */
+	static long compare(File a, File b) throws IOException {
+		InputStream inA = new BufferedInputStream(new FileInputStream(a), 1 << 16);
+		InputStream inB = new BufferedInputStream(new FileInputStream(b), 1 << 16);
+		try {
+			long offset = 0;
+			while (true) {
+				int x = inA.read(), y = inB.read();
+				if (x != y)
+					return offset;
+				if (x < 0)
+					return -1;
+				offset++;
+			}
+		} finally {
+			inA.close();
+			inB.close();
+		}
+	}
+}
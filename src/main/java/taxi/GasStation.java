@@ -0,0 +1,20 @@
+package taxi;
+
+import com.github.rinde.rinsim.core.model.road.RoadModel;
+import com.github.rinde.rinsim.core.model.road.RoadUser;
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * A gas station, where taxis refuel.
+ */
+class GasStation implements RoadUser {
+	Point _startPosition;
+
+	GasStation(Point position) {
+		_startPosition = position;
+	}
+
+	public void initRoadUser(RoadModel model) {
+		model.addObjectAt(this, _startPosition);
+	}
+}
@@ -0,0 +1,46 @@
+package taxi;
+
+import com.github.rinde.rinsim.core.Simulator;
+
+/**
+ * Runs a {@link Scenario} without a GUI, as fast as possible.
+ * <p>
+ * Unlike {@link TaxiSimulator}, this class does not touch any SWT classes, so it can be used on
+ * machines without a display. The results are written to standard output as usual, the timing
+ * report is written to standard error.
+ */
+public final class HeadlessSimulator {
+
+	private static final double HOUR = 60*60*1000d;
+
+	private HeadlessSimulator() {
+
+	}
+
+	/**
+	 * Starts a headless run.
+	 * @param args The scenario settings, see {@link Scenario#fromArgs(String[])}.
+	 */
+	public static void main(String[] args) {
+		run(Scenario.fromArgs(args));
+	}
+
+	/**
+	 * Run a scenario to its end time and report the wall-clock time it took.
+	 * @param scenario The scenario to run.
+	 * @return The simulator, after it has stopped.
+	 */
+	public static Simulator run(Scenario scenario) {
+		long start = System.nanoTime();
+		Simulator simulator = scenario.build();
+		long built = System.nanoTime();
+		simulator.start();
+		long end = System.nanoTime();
+
+		double simHours = simulator.getCurrentTime() / HOUR;
+		double wallSeconds = (end - built) / 1e9;
+		System.err.printf("Setup: %.3f s, simulated %.2f h in %.3f s, %.3f s per simulated hour%n",
+				(built - start) / 1e9, simHours, wallSeconds, simHours == 0 ? 0 : wallSeconds / simHours);
+		return simulator;
+	}
+}
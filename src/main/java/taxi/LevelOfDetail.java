@@ -0,0 +1,51 @@
+package taxi;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+import com.github.rinde.rinsim.ui.renderers.ViewPort;
+
+/**
+ * Decides how much detail the renderers draw. When few taxis are in view, e.g. when zoomed in,
+ * every taxi is drawn in full detail. When too many are, the renderers draw aggregates instead,
+ * so the frame rate doesn't drop with the size of the fleet.
+ */
+public final class LevelOfDetail {
+
+	static final int DETAIL_LIMIT = 300;		// The most taxis that are drawn in full detail.
+	private static final int MARGIN = 40;		// Labels stick out this many pixels around a taxi.
+
+	private LevelOfDetail() {
+
+	}
+
+	/**
+	 * Check if a point on the screen is in view, or close enough for its label to be.
+	 * @param x The x coordinate on the screen.
+	 * @param y The y coordinate on the screen.
+	 * @param clip The area being drawn.
+	 * @return Whether the point is in view.
+	 */
+	public static boolean isVisible(int x, int y, Rectangle clip) {
+		return x >= clip.x - MARGIN && x < clip.x + clip.width + MARGIN
+				&& y >= clip.y - MARGIN && y < clip.y + clip.height + MARGIN;
+	}
+
+	/**
+	 * Check if few enough taxis are in view to draw every one of them in full detail.
+	 * @param snapshot The snapshot to draw.
+	 * @param vp The view port.
+	 * @param clip The area being drawn.
+	 * @return Whether to draw the taxis in full detail.
+	 */
+	public static boolean isDetailed(RenderSnapshot snapshot, ViewPort vp, Rectangle clip) {
+		if (snapshot.getNumTaxis() <= DETAIL_LIMIT)
+			return true;
+		int visible = 0;
+		for (int i = 0; i < snapshot.getNumTaxis(); i++) {
+			if (isVisible(vp.toCoordX(snapshot.getTaxiX(i)), vp.toCoordY(snapshot.getTaxiY(i)), clip)
+					&& ++visible > DETAIL_LIMIT)
+				return false;
+		}
+		return true;
+	}
+}
@@ -4,51 +4,98 @@ import com.github.rinde.rinsim.core.model.comm.MessageContents;
 import com.github.rinde.rinsim.geom.Point;
 
 abstract public class Messages {
-	static public class RequestMessage implements MessageContents {
+	// The kinds of messages, to dispatch on with a switch instead of a chain of instanceof checks.
+	static public enum Kind {
+		REQUEST, OFFER, ACCEPT, NO_LONGER_AVAILABLE, CONFIRM
+	}
+
+	// Base of all messages between taxis and customers.
+	static abstract public class TaxiMessage implements MessageContents {
+		abstract public Kind getKind();
+	}
+
+	// Request from Customer to all taxis, with the largest offer the customer would take.
+	static public class RequestMessage extends TaxiMessage {
 		private Point _pickup;
 		private Point _destination;
+		private double _maxOffer;
 		
-		public RequestMessage(Point pickup, Point destination) {
+		public RequestMessage(Point pickup, Point destination, double maxOffer) {
 			_pickup = pickup;
 			_destination = destination;
+			_maxOffer = maxOffer;
 		}
 
 		public Point getPickup() { return _pickup; }
 		public Point getDestination() { return _destination; }
+		public double getMaxOffer() { return _maxOffer; }
+		public Kind getKind() { return Kind.REQUEST; }
 	}
 	
-	// Offer message from Customer to Taxi.
-	static public class OfferMessage implements MessageContents {
+	// Offer message from Taxi to Customer. A taxi that can't make an offer the customer would take
+	// declines, with a lower bound on its offer as the offer, so the customer still knows when all
+	// taxis answered and how close they came.
+	static public class OfferMessage extends TaxiMessage {
 		private double _offer;
 		private int _id;
+		private long _time;
+		private boolean _declined;
 		
-		public OfferMessage(double offer, int offerId) {
+		public OfferMessage(double offer, int offerId, long time) {
+			this(offer, offerId, time, false);
+		}
+
+		public OfferMessage(double offer, int offerId, long time, boolean declined) {
 			_offer = offer;
 			_id = offerId;
+			_time = time;
+			_declined = declined;
 		}
 
 		public double getOffer() { return _offer; }
 		public int getId() { return _id; }
+		public long getTime() { return _time; }
+		public boolean isDeclined() { return _declined; }
+		public Kind getKind() { return Kind.OFFER; }
 	}
 	
-	// Accept offer message from Customer to taxi.
-	static public class AcceptMessage implements MessageContents {
+	// Accept offer message from Customer to taxi, with the accepted offer and the largest offer the
+	// customer would still take, so a taxi can honour an offer it made on an older queue while its lease runs.
+	static public class AcceptMessage extends TaxiMessage {
 		private int _id;
+		private double _offer;
+		private long _offerTime;
+		private double _maxOffer;
 		
-		public AcceptMessage(int offerId) {
-			_id = offerId;
+		public AcceptMessage(Messages.OfferMessage offer, double maxOffer) {
+			_id = offer.getId();
+			_offer = offer.getOffer();
+			_offerTime = offer.getTime();
+			_maxOffer = maxOffer;
 		}
 		
 		public int getId() { return _id; }
+		public double getOffer() { return _offer; }
+		public long getOfferTime() { return _offerTime; }
+		public double getMaxOffer() { return _maxOffer; }
+		public Kind getKind() { return Kind.ACCEPT; }
 	}
 	
 	// When the Taxi already confirmed another pickup, send this message to let customers that accepted an offer.
-	static public class NoLongerAvailableMessage implements MessageContents {
+	static public class NoLongerAvailableMessage extends TaxiMessage {
 		public NoLongerAvailableMessage() { }
+		public Kind getKind() { return Kind.NO_LONGER_AVAILABLE; }
 	}
 	
-	// Confirm a pickup.
-	static public class ConfirmMessage implements MessageContents {
-		public ConfirmMessage() {};
+	// Confirm a pickup, at the offer the taxi will actually drive, which can be higher than the accepted one for a leased offer.
+	static public class ConfirmMessage extends TaxiMessage {
+		private double _offer;
+
+		public ConfirmMessage(double offer) {
+			_offer = offer;
+		}
+
+		public double getOffer() { return _offer; }
+		public Kind getKind() { return Kind.CONFIRM; }
 	}
 }
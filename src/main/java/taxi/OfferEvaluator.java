@@ -0,0 +1,83 @@
+package taxi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.github.rinde.rinsim.core.model.time.TickListener;
+import com.github.rinde.rinsim.core.model.time.TimeLapse;
+
+/**
+ * Computes the offers of all taxis in parallel, at the start of every tick.
+ * <p>
+ * Computing an offer only reads the state of the taxi and the road model, which don't change
+ * until the taxis are ticked. So before any taxi is ticked, the evaluator reads the messages of
+ * every taxi and computes the offers for the requests in parallel. The taxis then send the
+ * computed offers when they are ticked, in the same order as always, so the results are identical
+ * to computing the offers in the taxis' own ticks.
+ * <p>
+ * The evaluator must be added as a tick listener before the taxis are registered.
+ */
+class OfferEvaluator implements TickListener {
+
+	private final ForkJoinPool _pool;
+	private final List<Taxi> _taxis = new ArrayList<Taxi>();
+	private final List<Taxi> _pending = new ArrayList<Taxi>();
+
+	/**
+	 * @param threads The number of threads to compute the offers with.
+	 */
+	OfferEvaluator(int threads) {
+		_pool = new ForkJoinPool(threads);
+	}
+
+	void add(Taxi taxi) {
+		_taxis.add(taxi);
+	}
+
+	public void tick(TimeLapse time) {
+		for (Taxi t : _taxis)
+			if (t.prepareOffers())
+				_pending.add(t);
+		if (_pending.size() == 1)
+			_pending.get(0).computeOffers();
+		else if (_pending.size() > 1)
+			_pool.invoke(new ComputeOffers(_pending, 0, _pending.size()));
+		_pending.clear();
+	}
+
+	public void afterTick(TimeLapse timeLapse) { }
+
+	/**
+	 * Stop the threads of the evaluator.
+	 */
+	void shutdown() {
+		_pool.shutdown();
+	}
+
+	/**
+	 * Computes the offers of a range of taxis, splitting the range in halves until a single taxi is left.
+	 */
+	private static class ComputeOffers extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<Taxi> _taxis;
+		private final int _from, _to;
+
+		ComputeOffers(List<Taxi> taxis, int from, int to) {
+			_taxis = taxis;
+			_from = from;
+			_to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (_to - _from == 1)
+				_taxis.get(_from).computeOffers();
+			else {
+				int middle = (_from + _to) >>> 1;
+				invokeAll(new ComputeOffers(_taxis, _from, middle), new ComputeOffers(_taxis, middle, _to));
+			}
+		}
+	}
+}
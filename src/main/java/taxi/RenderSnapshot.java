@@ -0,0 +1,284 @@
+package taxi;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.commons.math3.linear.RealVector;
+
+import com.github.rinde.rinsim.core.model.pdp.PDPModel;
+import com.github.rinde.rinsim.core.model.pdp.PDPModel.VehicleState;
+import com.github.rinde.rinsim.core.model.road.RoadModel;
+import com.github.rinde.rinsim.geom.Point;
+
+import taxi.Customer.CustomerState;
+import taxi.Taxi.TaxiState;
+import utils.Route;
+
+/**
+ * The state of the agents as the renderers need it, captured at the end of a tick by the
+ * {@link SnapshotModel}. A snapshot is not changed while a renderer can see it, so the renderers
+ * can draw it without reading the live agents from the UI thread.
+ * <p>
+ * The state is kept in primitive arrays, indexed by taxi. Snapshots are reused, the arrays only
+ * grow when there are more taxis or customers than before.
+ */
+public final class RenderSnapshot {
+
+	private static final TaxiState[] TAXI_STATES = TaxiState.values();
+	private static final VehicleState[] VEHICLE_STATES = VehicleState.values();
+
+	private long _time;
+	private int _numTaxis;
+	private int[] _taxiIds = new int[0];
+	private double[] _taxiX = new double[0], _taxiY = new double[0];
+	private byte[] _taxiStates = new byte[0];
+	private byte[] _vehicleStates = new byte[0];
+	private int[] _passengers = new int[0];
+	private double[] _fuel = new double[0];
+	private double[] _refuelThresholds = new double[0];
+	private double[] _vectorX = new double[0], _vectorY = new double[0];	// NaN when there is no vector.
+	private double[] _ranges = new double[0];
+	// The queue of taxi i is at the indices _queueStarts[i] up to _queueStarts[i+1].
+	private int[] _queueStarts = new int[1];
+	private double[] _pickupX = new double[0], _pickupY = new double[0];
+	private double[] _deliveryX = new double[0], _deliveryY = new double[0];
+	private int _numMissed;
+	private double[] _missedX = new double[0], _missedY = new double[0];
+	private int _pathTaxi = -1;
+	private int _pathLength;
+	private double[] _pathX = new double[0], _pathY = new double[0];
+
+	RenderSnapshot() { }
+
+	/**
+	 * Capture the state of the agents. Must be called on the simulation thread.
+	 * @param taxis The taxis.
+	 * @param customers The customers on the road.
+	 * @param rm The road model.
+	 * @param pm The PDP model.
+	 * @param pathTaxi The id of the taxi to capture the planned path of, or -1.
+	 * @param time The current time.
+	 */
+	void capture(Collection<Taxi> taxis, Collection<Customer> customers, RoadModel rm, PDPModel pm, int pathTaxi, long time) {
+		_time = time;
+		_numTaxis = taxis.size();
+		if (_taxiIds.length < _numTaxis) {
+			int n = Math.max(_numTaxis, 2*_taxiIds.length);
+			_taxiIds = new int[n];
+			_taxiX = new double[n];
+			_taxiY = new double[n];
+			_taxiStates = new byte[n];
+			_vehicleStates = new byte[n];
+			_passengers = new int[n];
+			_fuel = new double[n];
+			_refuelThresholds = new double[n];
+			_vectorX = new double[n];
+			_vectorY = new double[n];
+			_ranges = new double[n];
+			_queueStarts = new int[n + 1];
+		}
+		_pathTaxi = -1;
+		_pathLength = 0;
+
+		int i = 0;
+		int queued = 0;
+		for (Taxi t : taxis) {
+			Point p = rm.getPosition(t);
+			_taxiIds[i] = t._id;
+			_taxiX[i] = p.x;
+			_taxiY[i] = p.y;
+			_taxiStates[i] = (byte)t.getState().ordinal();
+			_vehicleStates[i] = (byte)pm.getVehicleState(t).ordinal();
+			_passengers[i] = (int)pm.getContentsSize(t);
+			_fuel[i] = t.getFuelGauge();
+			_refuelThresholds[i] = t.getRefuelThreshold();
+			RealVector v = t.getRedustributionVector();
+			_vectorX[i] = v == null ? Double.NaN : v.getEntry(0);
+			_vectorY[i] = v == null ? Double.NaN : v.getEntry(1);
+			_ranges[i] = v != null && t.getState() == TaxiState.IDLE ? t.getRange() : 0;
+
+			_queueStarts[i] = queued;
+			for (int q = 0; q < t.getQueueSize(); q++) {
+				Customer c = t.getQueued(q);
+				if (queued == _pickupX.length) {
+					int n = Math.max(16, 2*queued);
+					_pickupX = Arrays.copyOf(_pickupX, n);
+					_pickupY = Arrays.copyOf(_pickupY, n);
+					_deliveryX = Arrays.copyOf(_deliveryX, n);
+					_deliveryY = Arrays.copyOf(_deliveryY, n);
+				}
+				_pickupX[queued] = c.getPickupLocation().x;
+				_pickupY[queued] = c.getPickupLocation().y;
+				_deliveryX[queued] = c.getDeliveryLocation().x;
+				_deliveryY[queued] = c.getDeliveryLocation().y;
+				queued++;
+			}
+
+			if (t._id == pathTaxi)
+				capturePath(t);
+			i++;
+		}
+		_queueStarts[i] = queued;
+
+		_numMissed = 0;
+		for (Customer c : customers) {
+			if (c.getState() != CustomerState.MISSED)
+				continue;
+			if (_numMissed == _missedX.length) {
+				_missedX = Arrays.copyOf(_missedX, Math.max(16, 2*_numMissed));
+				_missedY = Arrays.copyOf(_missedY, _missedX.length);
+			}
+			_missedX[_numMissed] = c.getPickupLocation().x;
+			_missedY[_numMissed] = c.getPickupLocation().y;
+			_numMissed++;
+		}
+	}
+
+	private void capturePath(Taxi t) {
+		Route path = t.getPlannedPath();
+		_pathTaxi = t._id;
+		_pathLength = path.size();
+		if (_pathX.length < _pathLength) {
+			_pathX = new double[Math.max(_pathLength, 2*_pathX.length)];
+			_pathY = new double[_pathX.length];
+		}
+		for (int j = 0; j < _pathLength; j++) {
+			Point p = path.get(j);
+			_pathX[j] = p.x;
+			_pathY[j] = p.y;
+		}
+	}
+
+	/**
+	 * @return The simulation time at which the snapshot was captured.
+	 */
+	public long getTime() {
+		return _time;
+	}
+
+	public int getNumTaxis() {
+		return _numTaxis;
+	}
+
+	public int getTaxiId(int i) {
+		return _taxiIds[i];
+	}
+
+	public double getTaxiX(int i) {
+		return _taxiX[i];
+	}
+
+	public double getTaxiY(int i) {
+		return _taxiY[i];
+	}
+
+	public TaxiState getTaxiState(int i) {
+		return TAXI_STATES[_taxiStates[i]];
+	}
+
+	public VehicleState getVehicleState(int i) {
+		return VEHICLE_STATES[_vehicleStates[i]];
+	}
+
+	/**
+	 * @return The number of customers in taxi i.
+	 */
+	public int getPassengers(int i) {
+		return _passengers[i];
+	}
+
+	public double getFuel(int i) {
+		return _fuel[i];
+	}
+
+	public double getFuelCapacity() {
+		return Taxi.FUEL_CAPACITY;
+	}
+
+	public double getRefuelThreshold(int i) {
+		return _refuelThresholds[i];
+	}
+
+	/**
+	 * @return Whether taxi i has computed a redistribution vector.
+	 */
+	public boolean hasVector(int i) {
+		return !Double.isNaN(_vectorX[i]);
+	}
+
+	public double getVectorX(int i) {
+		return _vectorX[i];
+	}
+
+	public double getVectorY(int i) {
+		return _vectorY[i];
+	}
+
+	/**
+	 * @return The range of the field of taxi i, if it is idle and has a redistribution vector.
+	 */
+	public double getRange(int i) {
+		return _ranges[i];
+	}
+
+	/**
+	 * @return The index of the first queued customer of taxi i, see {@link #getPickupX(int)}.
+	 */
+	public int getQueueStart(int i) {
+		return _queueStarts[i];
+	}
+
+	/**
+	 * @return The index after the last queued customer of taxi i.
+	 */
+	public int getQueueEnd(int i) {
+		return _queueStarts[i + 1];
+	}
+
+	public double getPickupX(int j) {
+		return _pickupX[j];
+	}
+
+	public double getPickupY(int j) {
+		return _pickupY[j];
+	}
+
+	public double getDeliveryX(int j) {
+		return _deliveryX[j];
+	}
+
+	public double getDeliveryY(int j) {
+		return _deliveryY[j];
+	}
+
+	public int getNumMissed() {
+		return _numMissed;
+	}
+
+	public double getMissedX(int j) {
+		return _missedX[j];
+	}
+
+	public double getMissedY(int j) {
+		return _missedY[j];
+	}
+
+	/**
+	 * @return The id of the taxi whose planned path was captured, or -1 if none was.
+	 */
+	public int getPathTaxi() {
+		return _pathTaxi;
+	}
+
+	public int getPathLength() {
+		return _pathLength;
+	}
+
+	public double getPathX(int j) {
+		return _pathX[j];
+	}
+
+	public double getPathY(int j) {
+		return _pathY[j];
+	}
+}
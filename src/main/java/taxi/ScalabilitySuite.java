@@ -0,0 +1,208 @@
+package taxi;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.github.rinde.rinsim.core.Simulator;
+
+import metrics.Histogram;
+import metrics.Metrics;
+import metrics.Phase;
+
+/**
+ * Measures how the whole simulator scales with the size of the city. For every fleet size, a
+ * synthetic city is generated in which the number of gas stations, the customer arrival rate and
+ * the graph size grow along with the fleet, starting from the default Leuven scenario at 30 taxis.
+ * Every scenario is run headless in its own JVM for the same simulated duration.
+ * <p>
+ * The report is a JSON file with, for every scenario, the simulated seconds per wall-clock second,
+ * the peak heap usage, the GC time and the wall-clock cost of dispatching, as well as the scaling
+ * curve: the exponent k in cost ~ taxis^k between consecutive fleet sizes.
+ * <p>
+ * Options, as <code>--key=value</code>:
+ * <ul>
+ * <li><code>sizes</code>: the fleet sizes, default 30,100,300,1000,3000,10000.</li>
+ * <li><code>graph</code>: <code>grid</code> or <code>radial</code>.</li>
+ * <li><code>duration</code>: the simulated time of every run, in ms, default one hour.</li>
+ * <li><code>jvmArgs</code>: extra arguments for the worker JVMs, e.g. <code>-Xmx8g</code>.</li>
+ * <li><code>output</code>: the report file, default scalability.json.</li>
+ * </ul>
+ */
+public final class ScalabilitySuite {
+
+	private static final int BASE_TAXIS = 30;
+	private static final int BASE_GAS_STATIONS = 8;
+	private static final double BASE_CUSTOMERS_PER_DAY = 500;
+	private static final int BASE_GRID_SIDE = 30;
+	private static final int BASE_RINGS = 15;
+	private static final int BASE_SPOKES = 60;
+	private static final String WORKER = "worker";
+	private static final String RESULT_PREFIX = "RESULT ";
+
+	private ScalabilitySuite() {
+
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		options.put("sizes", "30,100,300,1000,3000,10000");
+		options.put("graph", "grid");
+		options.put("duration", Long.toString(60*60*1000L));
+		options.put("jvmArgs", "");
+		options.put("output", "scalability.json");
+		for (String arg : args) {
+			int split = arg.indexOf('=');
+			if (!arg.startsWith("--") || split < 0)
+				throw new IllegalArgumentException("Expected --key=value, got " + arg + ".");
+			options.put(arg.substring(2, split), arg.substring(split + 1));
+		}
+
+		if (options.containsKey(WORKER)) {
+			options.remove(WORKER);
+			Scenario scenario = new Scenario();
+			for (Map.Entry<String, String> e : options.entrySet())
+				scenario.set(e.getKey(), e.getValue());
+			System.out.println(RESULT_PREFIX + measure(scenario));
+		} else
+			run(options);
+	}
+
+	/**
+	 * Run every scenario, one after another so they don't compete for cores, and write the report.
+	 */
+	static void run(Map<String, String> options) throws IOException, InterruptedException {
+		List<Integer> sizes = new ArrayList<Integer>();
+		for (String size : options.get("sizes").split("\\s*,\\s*"))
+			sizes.add(Integer.parseInt(size));
+		List<String> results = new ArrayList<String>();
+		List<Double> costs = new ArrayList<Double>();
+
+		for (int taxis : sizes) {
+			Map<String, String> scenario = scenario(taxis, options.get("graph"), Long.parseLong(options.get("duration")));
+			scenario.put(WORKER, "true");
+			System.err.println("Running " + scenario);
+			Process process = new ProcessBuilder(SweepRunner.command(ScalabilitySuite.class, scenario, options.get("jvmArgs").trim()))
+					.redirectError(Redirect.INHERIT)
+					.start();
+			String result = null;
+			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			String line;
+			while ((line = reader.readLine()) != null)
+				if (line.startsWith(RESULT_PREFIX))
+					result = line.substring(RESULT_PREFIX.length());
+			reader.close();
+			if (process.waitFor() != 0 || result == null) {
+				System.err.println("Run with " + taxis + " taxis failed, stopping.");
+				break;
+			}
+			results.add(result);
+			costs.add(parseWallPerSimSecond(result));
+		}
+
+		Writer out = new FileWriter(new File(options.get("output")));
+		try {
+			out.write("{\n  \"graph\": \"" + options.get("graph") + "\",\n  \"duration\": " + options.get("duration")
+					+ ",\n  \"runs\": [\n");
+			for (int i = 0; i < results.size(); i++)
+				out.write("    " + results.get(i) + (i + 1 < results.size() ? ",\n" : "\n"));
+			out.write("  ],\n  \"scaling\": [\n");
+			for (int i = 1; i < costs.size(); i++) {
+				double k = Math.log(costs.get(i) / costs.get(i-1)) / Math.log((double)sizes.get(i) / sizes.get(i-1));
+				out.write(String.format(Locale.ROOT, "    {\"from\": %d, \"to\": %d, \"exponent\": %.3f}%s",
+						sizes.get(i-1), sizes.get(i), k, i + 1 < costs.size() ? ",\n" : "\n"));
+			}
+			out.write("  ]\n}\n");
+		} finally {
+			out.close();
+		}
+		System.err.println("Report written to " + options.get("output"));
+	}
+
+	/**
+	 * The settings of the scenario for a fleet size, scaling everything along with the fleet.
+	 * The graph grows with the fleet so that the number of nodes per taxi stays the same.
+	 */
+	static Map<String, String> scenario(int taxis, String graph, long duration) {
+		double scale = (double)taxis / BASE_TAXIS;
+		Map<String, String> scenario = new LinkedHashMap<String, String>();
+		scenario.put("taxis", Integer.toString(taxis));
+		scenario.put("gasStations", Long.toString(Math.max(1, Math.round(BASE_GAS_STATIONS * scale))));
+		scenario.put("customersPerDay", Double.toString(BASE_CUSTOMERS_PER_DAY * scale));
+		if (graph.equals("grid")) {
+			int side = (int)Math.ceil(BASE_GRID_SIDE * Math.sqrt(scale));
+			scenario.put("map", "grid:" + side + "x" + side);
+		} else if (graph.equals("radial")) {
+			int rings = (int)Math.ceil(BASE_RINGS * Math.sqrt(scale));
+			int spokes = (int)Math.ceil(BASE_SPOKES * Math.sqrt(scale));
+			scenario.put("map", "radial:" + rings + "x" + spokes);
+		} else
+			throw new IllegalArgumentException("Unknown graph type: " + graph + ".");
+		scenario.put("endTime", Long.toString(duration));
+		scenario.put("events", "none");
+		scenario.put("seed", "0");
+		return scenario;
+	}
+
+	/**
+	 * Run a scenario in this JVM and measure it.
+	 * @return The measurements, as a JSON object.
+	 */
+	static String measure(Scenario scenario) {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		long gcStart = gcMillis();
+		Metrics.reset();
+		Metrics.setEnabled(true);
+
+		long start = System.nanoTime();
+		Simulator simulator = scenario.build();
+		long built = System.nanoTime();
+		simulator.start();
+		long end = System.nanoTime();
+
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				peakHeap += pool.getPeakUsage().getUsed();
+		double simSeconds = simulator.getCurrentTime() / 1000d;
+		double wallSeconds = (end - built) / 1e9;
+		Histogram offers = Metrics.get(Phase.SEND_OFFER);
+		Histogram accepts = Metrics.get(Phase.HANDLE_ACCEPT);
+		return String.format(Locale.ROOT, "{\"taxis\": %d, \"gasStations\": %d, \"map\": \"%s\", \"setupSeconds\": %.3f, "
+				+ "\"wallSeconds\": %.3f, \"simSecondsPerWallSecond\": %.3f, \"wallPerSimSecond\": %.9f, "
+				+ "\"peakHeapBytes\": %d, \"gcMillis\": %d, \"offers\": %d, \"offerP50Micros\": %.1f, "
+				+ "\"offerP99Micros\": %.1f, \"dispatchMillis\": %.1f}",
+				scenario.getNumTaxis(), scenario.getNumGasStations(), scenario.getMap(), (built - start) / 1e9,
+				wallSeconds, simSeconds / wallSeconds, wallSeconds / simSeconds, peakHeap, gcMillis() - gcStart,
+				offers.getCount(), offers.getValueAtQuantile(0.5) / 1e3, offers.getValueAtQuantile(0.99) / 1e3,
+				(offers.getSum() + accepts.getSum()) / 1e6);
+	}
+
+	private static long gcMillis() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			total += Math.max(0, gc.getCollectionTime());
+		return total;
+	}
+
+	private static double parseWallPerSimSecond(String result) {
+		String key = "\"wallPerSimSecond\": ";
+		int start = result.indexOf(key) + key.length();
+		return Double.parseDouble(result.substring(start, result.indexOf(',', start)));
+	}
+}
@@ -0,0 +1,528 @@
+package taxi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+import org.apache.commons.math3.distribution.MultivariateRealDistribution;
+import org.apache.commons.math3.random.RandomGenerator;
+
+import com.github.rinde.rinsim.core.Simulator;
+import com.github.rinde.rinsim.core.model.ModelBuilder;
+import com.github.rinde.rinsim.core.model.comm.CommModel;
+import com.github.rinde.rinsim.core.model.pdp.DefaultPDPModel;
+import com.github.rinde.rinsim.core.model.pdp.Parcel;
+import com.github.rinde.rinsim.core.model.pdp.ParcelDTO;
+import com.github.rinde.rinsim.core.model.road.RoadModel;
+import com.github.rinde.rinsim.core.model.road.RoadModelBuilders;
+import com.github.rinde.rinsim.core.model.time.TickListener;
+import com.github.rinde.rinsim.core.model.time.TimeLapse;
+import com.github.rinde.rinsim.geom.Graph;
+import com.github.rinde.rinsim.geom.MultiAttributeData;
+import com.github.rinde.rinsim.geom.io.DotGraphIO;
+import com.github.rinde.rinsim.geom.io.Filters;
+
+import decisions.DecisionLog;
+import demand.RecordedDemand;
+import demand.TraceDemand;
+import demand.Trip;
+import events.EventSink;
+import events.EventType;
+import events.EventWriter;
+import events.TeeEventWriter;
+import gradient.GradientModel;
+import gradient.ZoneRebalancer;
+import metrics.Metrics;
+import stats.Statistics;
+import utils.GraphCodec;
+import utils.GraphUtils;
+import utils.LeuvenDistribution;
+import utils.PrecomputeCache;
+import utils.RandomStreams;
+import utils.SyntheticGraphs;
+
+/**
+ * The settings of a simulation run, and the construction of the simulator from them.
+ * <p>
+ * Settings are read from properties files and from <code>--key=value</code> command line flags,
+ * so that they can be changed without recompiling. This class does not depend on SWT, the GUI
+ * is only added by {@link TaxiSimulator}.
+ */
+public final class Scenario {
+
+	// Units: time(ms), distance(dm), volume(ml).
+	static final String MAP_FILE = "/data/maps/leuven-simple.dot";
+	private static final long SERVICE_DURATION = 60000L;
+	private static final int TAXI_CAPACITY = 1;
+	// private static final int MAX_CAPACITY = 1;
+	private static final long DAY = 24L * 60L * 60L * 1000L;
+	private static final long DEFAULT_SEED = 0L;		// Like the sweeps, so an unseeded run is seed 0 of a sweep.
+
+	private int _numTaxis = 30;
+	private int _numGasStations = 8;
+	private double _customersPerDay = 500;
+	private String _map = MAP_FILE;
+	private long _endTime = DAY;
+	private long _seed = DEFAULT_SEED;
+	private double _refuelThreshold = Taxi.REFUEL_THRESHOLD;
+	private double _fieldDiminishRate = Taxi.FIELD_DIMINISH_RATE;
+	private double _redistributionThreshold = Taxi.REDISTRIBUTION_THRESHOLD;
+	private String _events = "-";				// Where to write the events, "-" for standard output.
+	private String _eventFormat = "csv";
+	private boolean _dormancy = true;			// Let idle taxis skip field computations while nothing changes.
+	private String _trace = null;				// A trip trace to replay instead of random demand.
+	private String _traceFormat = "csv";
+	private double[] _traceBounds = null;		// The geographic bounds of the map, when the trace uses latitudes and longitudes.
+	private long _traceStart = -1;				// The trace time at which to start, in ms, -1 for the first trip.
+	private String _steering = "graph";			// How idle taxis follow the field, "graph" or "closest".
+	private String _rebalancing = "fields";		// How idle taxis are spread, "fields" or "zones".
+	private int _zones = 8;						// The number of zones along each side of the map, for "zones".
+	private long _rebalancePeriod = 60000L;		// The time between two zone rebalancings, in ms.
+	private int _offerThreads = 0;				// The threads to compute offers with, 0 to compute them in the taxis' ticks.
+	private long _offerLease = 5000L;			// How long a taxi honours an offer after its queue changed, in ms.
+	private boolean _statistics = false;		// Compute the statistics of the run while it runs.
+	private String _decisions = null;			// Where to record the dispatch decisions.
+	private String _replay = null;				// A decision log whose customers to replay instead of random demand.
+	private String _cache = "none";			// The directory to cache precomputed artefacts in.
+	private boolean _contraction = true;		// Search the graph with its chains of degree-2 nodes contracted.
+
+	public Scenario() { }
+
+	/**
+	 * Create a scenario from command line arguments. Arguments of the form <code>--key=value</code>
+	 * set a single setting, any other argument is read as a properties file with the same keys.
+	 * Later arguments override earlier ones.
+	 * @param args The command line arguments, may be <code>null</code>.
+	 * @return The scenario.
+	 */
+	public static Scenario fromArgs(String[] args) {
+		Scenario scenario = new Scenario();
+		if (args == null)
+			return scenario;
+		for (String arg : args) {
+			if (arg.startsWith("--")) {
+				int split = arg.indexOf('=');
+				if (split < 0)
+					throw new IllegalArgumentException("Expected --key=value, got " + arg + ".");
+				scenario.set(arg.substring(2, split), arg.substring(split + 1));
+			} else
+				scenario.load(new File(arg));
+		}
+		return scenario;
+	}
+
+	/**
+	 * Load the settings in a properties file.
+	 * @param file The properties file.
+	 */
+	public void load(File file) {
+		Properties properties = new Properties();
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not read scenario file " + file + ".", e);
+		}
+		for (String key : properties.stringPropertyNames())
+			set(key, properties.getProperty(key).trim());
+	}
+
+	/**
+	 * Change a single setting.
+	 * @param key The name of the setting.
+	 * @param value The new value, as text.
+	 */
+	public void set(String key, String value) {
+		if (key.equals("taxis"))
+			_numTaxis = Integer.parseInt(value);
+		else if (key.equals("gasStations"))
+			_numGasStations = Integer.parseInt(value);
+		else if (key.equals("customersPerDay"))
+			_customersPerDay = Double.parseDouble(value);
+		else if (key.equals("map"))
+			_map = value;
+		else if (key.equals("endTime"))
+			_endTime = Long.parseLong(value);
+		else if (key.equals("seed"))
+			_seed = Long.parseLong(value);
+		else if (key.equals("refuelThreshold"))
+			_refuelThreshold = Double.parseDouble(value);
+		else if (key.equals("fieldDiminishRate"))
+			_fieldDiminishRate = Double.parseDouble(value);
+		else if (key.equals("redistributionThreshold"))
+			_redistributionThreshold = Double.parseDouble(value);
+		else if (key.equals("events"))
+			_events = value;
+		else if (key.equals("eventFormat"))
+			_eventFormat = value;
+		else if (key.equals("dormancy"))
+			_dormancy = Boolean.parseBoolean(value);
+		else if (key.equals("trace"))
+			_trace = value.isEmpty() || value.equals("none") ? null : value;
+		else if (key.equals("traceFormat"))
+			_traceFormat = value;
+		else if (key.equals("traceBounds")) {
+			String[] bounds = value.split("\\s*,\\s*");
+			if (bounds.length != 4)
+				throw new IllegalArgumentException("Expected minLat,minLon,maxLat,maxLon, got " + value + ".");
+			_traceBounds = new double[4];
+			for (int i = 0; i < 4; i++)
+				_traceBounds[i] = Double.parseDouble(bounds[i]);
+		} else if (key.equals("traceStart"))
+			_traceStart = Long.parseLong(value);
+		else if (key.equals("steering")) {
+			if (!value.equals("graph") && !value.equals("closest"))
+				throw new IllegalArgumentException("Unknown steering: " + value + ".");
+			_steering = value;
+		} else if (key.equals("rebalancing")) {
+			if (!value.equals("fields") && !value.equals("zones"))
+				throw new IllegalArgumentException("Unknown rebalancing: " + value + ".");
+			_rebalancing = value;
+		} else if (key.equals("zones"))
+			_zones = Integer.parseInt(value);
+		else if (key.equals("rebalancePeriod"))
+			_rebalancePeriod = Long.parseLong(value);
+		else if (key.equals("offerThreads"))
+			_offerThreads = Integer.parseInt(value);
+		else if (key.equals("offerLease"))
+			_offerLease = Long.parseLong(value);
+		else if (key.equals("decisions"))
+			_decisions = value.isEmpty() || value.equals("none") ? null : value;
+		else if (key.equals("replay"))
+			_replay = value.isEmpty() || value.equals("none") ? null : value;
+		else if (key.equals("cache"))
+			_cache = value;
+		else if (key.equals("contraction"))
+			_contraction = Boolean.parseBoolean(value);
+		else if (key.equals("statistics"))
+			_statistics = Boolean.parseBoolean(value);
+		else if (key.equals("metrics"))
+			Metrics.setEnabled(Boolean.parseBoolean(value));
+		else
+			throw new IllegalArgumentException("Unknown scenario setting: " + key + ".");
+	}
+
+	public int getNumTaxis() {
+		return _numTaxis;
+	}
+
+	public int getNumGasStations() {
+		return _numGasStations;
+	}
+
+	/**
+	 * Get the time between two customers.
+	 * @return The time between two customers, in ms.
+	 */
+	public double getCustomerInterval() {
+		return DAY / _customersPerDay;
+	}
+
+	public String getMap() {
+		return _map;
+	}
+
+	public long getEndTime() {
+		return _endTime;
+	}
+
+	public double getRefuelThreshold() {
+		return _refuelThreshold;
+	}
+
+	public double getFieldDiminishRate() {
+		return _fieldDiminishRate;
+	}
+
+	public double getRedistributionThreshold() {
+		return _redistributionThreshold;
+	}
+
+	public boolean isDormancyEnabled() {
+		return _dormancy;
+	}
+
+	/**
+	 * Get how long a taxi honours an offer after its queue changed, if the customer still takes it at the new price.
+	 * @return The lease, in ms, 0 to only honour offers made on the current queue.
+	 */
+	public long getOfferLease() {
+		return _offerLease;
+	}
+
+	/**
+	 * Get how idle taxis follow the field: along the road that points most in its direction ("graph"),
+	 * or to the node closest to where it points ("closest").
+	 */
+	public String getSteering() {
+		return _steering;
+	}
+
+	/**
+	 * Build a simulator with all models and agents of this scenario registered.
+	 * @param extraModels Additional models, e.g. a GUI.
+	 * @return The simulator, ready to be started.
+	 */
+	public Simulator build(ModelBuilder<?, ?>... extraModels) {
+		EventWriter writer;
+		try {
+			writer = EventSink.openWriter(_events, _eventFormat);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not open the event log " + _events + ".", e);
+		}
+		final Statistics statistics = _statistics ? new Statistics() : null;
+		if (statistics != null) {
+			statistics.register();
+			writer = writer == null ? statistics : new TeeEventWriter(writer, statistics);
+		}
+		EventSink.install(writer == null ? null : new EventSink(writer));
+		try {
+			DecisionLog.install(_decisions == null ? null : new DecisionLog(new File(_decisions)));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not open the decision log " + _decisions + ".", e);
+		}
+
+		final PrecomputeCache cache = PrecomputeCache.open(_cache);
+		final byte[] mapData = SyntheticGraphs.isSynthetic(_map) ? null : readMap(_map);
+		final String mapHash = cache == null ? null : hashGraph(_map, mapData);
+		Graph<MultiAttributeData> graph = loadGraph(_map, mapData, cache, mapHash);
+		Simulator.Builder builder = Simulator.builder()
+				.addModel(RoadModelBuilders.staticGraph(graph))
+				.addModel(DefaultPDPModel.builder())
+				.addModel(CommModel.builder())
+				.addModel(GradientModel.builder());
+		for (ModelBuilder<?, ?> model : extraModels)
+			builder.addModel(model);
+		builder.setRandomSeed(_seed);
+		final Simulator simulator = builder.build();
+		final RoadModel roadModel = simulator.getModelProvider().getModel(RoadModel.class);
+		final MultivariateRealDistribution rng2D = new LeuvenDistribution();
+		final MultivariateRealDistribution rng2DTaxi = rng2D;
+		//final MultivariateRealDistribution rng2DTaxi = new MultivariateUniformDistribution();
+		//final MultivariateRealDistribution rng2DTaxi = new MultivariateEmpiricalDistribution();
+		simulator.getModelProvider().getModel(GradientModel.class).setMapDistribution(rng2DTaxi);
+		GraphUtils.init(graph, roadModel, cache, mapHash, _contraction);
+
+		// Ensure deterministic execution: every subsystem and agent draws from its own stream of the seed,
+		// so the results don't depend on the order in which they draw.
+		final RandomStreams streams = new RandomStreams(_seed);
+		rng2D.reseedRandomGenerator(streams.getSeed(RandomStreams.MAP));
+		final RandomGenerator demandRng = streams.get(RandomStreams.DEMAND);
+		final MultivariateRealDistribution demand2D = new LeuvenDistribution();
+		demand2D.reseedRandomGenerator(demandRng.nextLong());
+
+		// add depots, taxis and parcels to simulator
+		for (int i = 0; i < _numGasStations; i++)
+			simulator.register(new GasStation(GraphUtils.getRandomNode(rng2D)));
+		// Idle taxis follow the targets of the rebalancer, which must be updated before any taxi is ticked.
+		if (_rebalancing.equals("zones")) {
+			GradientModel gm = simulator.getModelProvider().getModel(GradientModel.class);
+			ZoneRebalancer rebalancer = new ZoneRebalancer(gm, _zones, _rebalancePeriod);
+			gm.setRebalancer(rebalancer);
+			simulator.addTickListener(rebalancer);
+		}
+		// The offers must be computed before any taxi is ticked.
+		final OfferEvaluator offers = _offerThreads > 0 ? new OfferEvaluator(_offerThreads) : null;
+		if (offers != null)
+			simulator.addTickListener(offers);
+		for (int i = 0; i < _numTaxis; i++) {
+			Taxi taxi = new Taxi(roadModel.getRandomPosition(streams.get(RandomStreams.TAXIS, i)), TAXI_CAPACITY, this);
+			simulator.register(taxi);
+			if (offers != null)
+				offers.add(taxi);
+		}
+
+		final double customerInterval = getCustomerInterval();
+		final TraceDemand trace;
+		try {
+			trace = _trace == null ? null
+					: new TraceDemand(TraceDemand.open(new File(_trace), _traceFormat), _traceBounds, _traceStart);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not open the trace " + _trace + ".", e);
+		}
+		final RecordedDemand replay;
+		try {
+			replay = _replay == null ? null : new RecordedDemand(new File(_replay));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not open the decision log " + _replay + ".", e);
+		}
+		final CustomerManager customers = new CustomerManager(simulator);
+		simulator.addTickListener(new TickListener() {
+			private double _timeSinceLastCustomer = 0;
+			private int _numCustomers = 0;
+			private boolean _stopping = false;
+
+			public void tick(TimeLapse time) {
+				_timeSinceLastCustomer += time.getTickLength();
+				if (time.getStartTime() > _endTime) {
+					for (Taxi t : roadModel.getObjectsOfType(Taxi.class))
+						EventSink.log(EventType.FUEL_TOTAL, time.getTime(), -1, t._id, t._totalFuelUsed);
+					_stopping = true;
+					simulator.stop();
+				} else if (replay != null) {
+					// Replay all customers that made their first request during this tick.
+					Trip trip;
+					while ((trip = replay.peek()) != null && trip.getTime() < time.getEndTime()) {
+						ParcelDTO dto = Parcel
+								.builder(trip.getPickup(), trip.getDropoff())
+								.serviceDuration(SERVICE_DURATION)
+								.neededCapacity(1)
+								.buildDTO();
+						Customer customer = new Customer(dto, simulator, _numTaxis, true,
+								streams.get(RandomStreams.CUSTOMERS, _numCustomers++));
+						customer.setRecorded(replay.getPatience(), replay.getPathLength());
+						replay.poll();
+						simulator.register(customer);
+						customers.add(customer);
+					}
+				} else if (trace != null) {
+					// Replay all trips requested during this tick.
+					Trip trip;
+					while ((trip = trace.peek()) != null && trip.getTime() < time.getEndTime()) {
+						trace.poll();
+						ParcelDTO dto = Parcel
+								.builder(trip.getPickup(), trip.getDropoff())
+								.serviceDuration(SERVICE_DURATION)
+								.neededCapacity(1)
+								.buildDTO();
+						Customer customer = new Customer(dto, simulator, _numTaxis, true,
+								streams.get(RandomStreams.CUSTOMERS, _numCustomers++));
+						simulator.register(customer);
+						customers.add(customer);
+					}
+				} else if (_timeSinceLastCustomer > customerInterval) {
+					_timeSinceLastCustomer = _timeSinceLastCustomer % customerInterval;
+					ParcelDTO builder = Parcel
+							.builder(GraphUtils.getRandomNode(demand2D), roadModel.getRandomPosition(demandRng))
+							.serviceDuration(SERVICE_DURATION)
+							// larger groups? More than 1?
+							.neededCapacity(1) // + rng.nextInt(MAX_CAPACITY)
+							.buildDTO();
+					Customer customer = new Customer(builder, simulator, _numTaxis, false,
+							streams.get(RandomStreams.CUSTOMERS, _numCustomers++));
+					simulator.register(customer);
+					customers.add(customer);
+				}
+			}
+
+			public void afterTick(TimeLapse timeLapse) {
+				// Write the remaining events once every agent handled the last tick.
+				if (_stopping) {
+					EventSink.install(null);
+					try {
+						DecisionLog.install(null);
+					} catch (IOException e) {
+						throw new IllegalStateException("Writing the decision log failed.", e);
+					}
+					if (replay != null)
+						replay.close();
+					if (offers != null)
+						offers.shutdown();
+					if (trace != null) {
+						trace.close();
+						System.err.println("Trace: " + trace.getSkipped() + " trips skipped.");
+					}
+					if (Metrics.isEnabled())
+						System.err.print(Metrics.summary());
+					if (statistics != null)
+						System.err.print(statistics.snapshot().format());
+				}
+			}
+		});
+		// Customers are handled after the taxis and the spawner, like when they were tick listeners themselves.
+		simulator.addTickListener(customers);
+		return simulator;
+	}
+
+	/**
+	 * Load a graph, either from the classpath or, if it is not found there, from the file system.
+	 * Names of synthetic graphs, see {@link SyntheticGraphs}, create that graph instead.
+	 * @param name The name of the graph resource or file.
+	 * @return The graph.
+	 */
+	public static Graph<MultiAttributeData> loadGraph(String name) {
+		if (SyntheticGraphs.isSynthetic(name))
+			return SyntheticGraphs.create(name);
+		return parseGraph(readMap(name));
+	}
+
+	/**
+	 * Load a graph from a cache, or load it as usual and cache it when it was not cached yet.
+	 * @param name The name of the graph.
+	 * @param data The contents of the graph file, or <code>null</code> for a synthetic graph.
+	 * @param cache The cache, or <code>null</code> to not cache the graph.
+	 * @param hash The hash of the graph.
+	 * @return The graph.
+	 */
+	static Graph<MultiAttributeData> loadGraph(String name, byte[] data, PrecomputeCache cache, String hash) {
+		if (cache != null) {
+			try {
+				ByteBuffer cached = cache.load(GraphCodec.KIND, GraphCodec.VERSION, hash);
+				if (cached != null)
+					return GraphCodec.decode(cached);
+			} catch (IOException e) {
+				System.err.println("Could not read the cached graph: " + e.getMessage());
+			}
+		}
+		Graph<MultiAttributeData> graph = data == null ? SyntheticGraphs.create(name) : parseGraph(data);
+		if (cache != null) {
+			try {
+				cache.store(GraphCodec.KIND, GraphCodec.VERSION, hash, GraphCodec.encode(graph));
+			} catch (IOException e) {
+				System.err.println("Could not cache the graph: " + e.getMessage());
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Get the hash of a graph, to name its artefacts in the cache: the hash of the file's contents,
+	 * or of the name for a synthetic graph.
+	 */
+	static String hashGraph(String name, byte[] data) {
+		return data == null ? PrecomputeCache.hash(null, name) : PrecomputeCache.hash(data);
+	}
+
+	private static Graph<MultiAttributeData> parseGraph(byte[] data) {
+		try {
+			return DotGraphIO.getMultiAttributeGraphIO(Filters.selfCycleFilter()).read(new ByteArrayInputStream(data));
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Read the contents of a graph file, from the classpath or from the file system.
+	 */
+	private static byte[] readMap(String name) {
+		try {
+			InputStream in = Scenario.class.getResourceAsStream(name);
+			if (in == null)
+				in = new FileInputStream(name);
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[1 << 16];
+				int n;
+				while ((n = in.read(buffer)) >= 0)
+					out.write(buffer, 0, n);
+				return out.toByteArray();
+			} finally {
+				in.close();
+			}
+		} catch (final FileNotFoundException e) {
+			throw new IllegalStateException(e);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
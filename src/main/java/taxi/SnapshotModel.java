@@ -0,0 +1,111 @@
+package taxi;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.rinde.rinsim.core.model.DependencyProvider;
+import com.github.rinde.rinsim.core.model.Model.AbstractModel;
+import com.github.rinde.rinsim.core.model.ModelBuilder.AbstractModelBuilder;
+import com.github.rinde.rinsim.core.model.pdp.PDPModel;
+import com.github.rinde.rinsim.core.model.road.RoadModel;
+import com.github.rinde.rinsim.core.model.time.TickListener;
+import com.github.rinde.rinsim.core.model.time.TimeLapse;
+import com.google.auto.value.AutoValue;
+
+/**
+ * Publishes {@link RenderSnapshot}s of the agents from the simulation thread to the renderers.
+ * <p>
+ * At the end of a tick, a snapshot is captured when the renderers took the previous one, or when
+ * the previous one is older than a frame. The renderers swap in the latest snapshot with
+ * {@link #acquire()}. Snapshots are passed between the threads with atomic swaps and are recycled,
+ * so neither thread waits for the other and no garbage is created per frame.
+ */
+public class SnapshotModel extends AbstractModel<Void> implements TickListener {
+
+	private static final long FRAME_NANOS = 1000000000L / 60;
+
+	private final RoadModel _rm;
+	private final PDPModel _pm;
+	private final AtomicReference<RenderSnapshot> _published = new AtomicReference<RenderSnapshot>();
+	private final AtomicReference<RenderSnapshot> _free = new AtomicReference<RenderSnapshot>();
+	private long _publishedAt = 0;				// Simulation thread only.
+	private RenderSnapshot _current;			// UI thread only.
+	private volatile int _highlighted = -1;
+
+	SnapshotModel(RoadModel rm, PDPModel pm) {
+		_rm = rm;
+		_pm = pm;
+	}
+
+	public void tick(TimeLapse timeLapse) { }
+
+	public void afterTick(TimeLapse timeLapse) {
+		long now = System.nanoTime();
+		if (_published.get() != null && now - _publishedAt < FRAME_NANOS)
+			return;
+		RenderSnapshot snapshot = _free.getAndSet(null);
+		if (snapshot == null)
+			snapshot = new RenderSnapshot();
+		snapshot.capture(_rm.getObjectsOfType(Taxi.class), _rm.getObjectsOfType(Customer.class), _rm, _pm,
+				_highlighted, timeLapse.getEndTime());
+		// Recycle the previous snapshot if the renderers never took it.
+		RenderSnapshot old = _published.getAndSet(snapshot);
+		if (old != null)
+			_free.set(old);
+		_publishedAt = now;
+	}
+
+	/**
+	 * Get the latest snapshot. Must only be called from the UI thread, the previous snapshot may
+	 * be reused once this is called, so it must no longer be drawn from.
+	 * @return The latest snapshot, or <code>null</code> if none was captured yet.
+	 */
+	public RenderSnapshot acquire() {
+		RenderSnapshot snapshot = _published.getAndSet(null);
+		if (snapshot != null) {
+			if (_current != null)
+				_free.set(_current);
+			_current = snapshot;
+		}
+		return _current;
+	}
+
+	/**
+	 * Set the taxi whose planned path the next snapshots should include.
+	 * @param taxiId The id of the taxi, or -1 for none.
+	 */
+	public void setHighlighted(int taxiId) {
+		_highlighted = taxiId;
+	}
+
+	public boolean register(Void element) {
+		return false;
+	}
+
+	public boolean unregister(Void element) {
+		return false;
+	}
+
+	@Override
+	public <U> U get(Class<U> clazz) {
+		return clazz.cast(this);
+	}
+
+	public static Builder builder() {
+		return new AutoValue_SnapshotModel_Builder();
+	}
+
+	@AutoValue
+	abstract static class Builder extends AbstractModelBuilder<SnapshotModel, Void> {
+
+		Builder() {
+			setDependencies(RoadModel.class, PDPModel.class);
+			setProvidingTypes(SnapshotModel.class);
+		}
+
+		public SnapshotModel build(DependencyProvider dependencyProvider) {
+			final RoadModel rm = dependencyProvider.get(RoadModel.class);
+			final PDPModel pm = dependencyProvider.get(PDPModel.class);
+			return new SnapshotModel(rm, pm);
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package taxi;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a parameter sweep: every combination of the swept settings, for every seed, as a
+ * separate {@link HeadlessSimulator} run in a pool of local worker JVMs.
+ * <p>
+ * The sweep is described by a properties file:
+ * <ul>
+ * <li><code>sweep.&lt;key&gt;=v1,v2,...</code> sweeps a {@link Scenario} setting over the given values.</li>
+ * <li><code>seeds=1-100</code> or <code>seeds=1,5,9</code> gives the seeds to run every combination with.</li>
+ * <li><code>workers</code> is the number of concurrent JVMs, by default the number of cores.</li>
+ * <li><code>jvmArgs</code> are extra arguments for the worker JVMs, e.g. <code>-Xmx1g</code>.</li>
+ * <li><code>output</code> is the directory the results are written to.</li>
+ * <li>Any other key is a {@link Scenario} setting that is the same for every run.</li>
+ * </ul>
+ * Every run writes its output to its own CSV file, named after its settings. Finished runs are
+ * skipped when the sweep is started again, so an interrupted sweep can be resumed.
+ */
+public final class SweepRunner {
+
+	private static final String SWEEP_PREFIX = "sweep.";
+	private static final String DONE_EXTENSION = ".csv";
+	private static final String PARTIAL_EXTENSION = ".csv.part";
+
+	private SweepRunner() {
+
+	}
+
+	/**
+	 * Starts a sweep.
+	 * @param args The sweep properties file.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length != 1) {
+			System.err.println("Usage: SweepRunner <sweep.properties>");
+			System.exit(1);
+		}
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(args[0]);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		run(properties);
+	}
+
+	/**
+	 * Run all jobs of a sweep that have not been finished yet.
+	 * @param properties The description of the sweep.
+	 */
+	public static void run(Properties properties) throws IOException, InterruptedException {
+		File output = new File(properties.getProperty("output", "sweep"));
+		int workers = Integer.parseInt(properties.getProperty("workers",
+				Integer.toString(Runtime.getRuntime().availableProcessors())));
+		String jvmArgs = properties.getProperty("jvmArgs", "").trim();
+		List<Map<String, String>> jobs = expand(properties);
+
+		if (!output.isDirectory() && !output.mkdirs())
+			throw new IOException("Could not create " + output + ".");
+
+		List<Map<String, String>> todo = new ArrayList<Map<String, String>>();
+		for (Map<String, String> job : jobs)
+			if (!new File(output, name(job) + DONE_EXTENSION).exists())
+				todo.add(job);
+		System.err.println(jobs.size() + " runs, " + (jobs.size() - todo.size()) + " already done, "
+				+ workers + " workers.");
+
+		final AtomicInteger finished = new AtomicInteger(jobs.size() - todo.size());
+		final int total = jobs.size();
+		final Writer index = new BufferedWriter(new FileWriter(new File(output, "index.txt"), true));
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		for (final Map<String, String> job : todo) {
+			final List<String> command = command(job, jvmArgs);
+			final File dir = output;
+			pool.execute(new Runnable() {
+				public void run() {
+					try {
+						String report = runJob(command, dir, name(job));
+						synchronized (index) {
+							index.write(name(job) + "\t" + report + "\n");
+							index.flush();
+						}
+						System.err.println("[" + finished.incrementAndGet() + "/" + total + "] " + name(job) + ": " + report);
+					} catch (IOException e) {
+						System.err.println(name(job) + " failed: " + e.getMessage());
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		index.close();
+	}
+
+	/**
+	 * Expand the swept settings and seeds into the settings of every run, in a stable order.
+	 * @param properties The description of the sweep.
+	 * @return The settings of every run.
+	 */
+	static List<Map<String, String>> expand(Properties properties) {
+		Map<String, String> base = new LinkedHashMap<String, String>();
+		Map<String, String[]> swept = new LinkedHashMap<String, String[]>();
+		List<String> keys = new ArrayList<String>(properties.stringPropertyNames());
+		Collections.sort(keys);
+		for (String key : keys) {
+			String value = properties.getProperty(key).trim();
+			if (key.startsWith(SWEEP_PREFIX))
+				swept.put(key.substring(SWEEP_PREFIX.length()), value.split("\\s*,\\s*"));
+			else if (!key.equals("seeds") && !key.equals("workers") && !key.equals("jvmArgs") && !key.equals("output"))
+				base.put(key, value);
+		}
+		swept.put("seed", parseSeeds(properties.getProperty("seeds", "0")));
+
+		List<Map<String, String>> jobs = new ArrayList<Map<String, String>>();
+		jobs.add(base);
+		for (Map.Entry<String, String[]> e : swept.entrySet()) {
+			List<Map<String, String>> expanded = new ArrayList<Map<String, String>>();
+			for (Map<String, String> job : jobs) {
+				for (String value : e.getValue()) {
+					Map<String, String> j = new LinkedHashMap<String, String>(job);
+					j.put(e.getKey(), value);
+					expanded.add(j);
+				}
+			}
+			jobs = expanded;
+		}
+		return jobs;
+	}
+
+	/**
+	 * Parse a list of seeds, given as comma separated values or ranges, e.g. "1-10,20".
+	 */
+	static String[] parseSeeds(String seeds) {
+		List<String> r = new ArrayList<String>();
+		for (String part : seeds.split("\\s*,\\s*")) {
+			int dash = part.indexOf('-', 1);
+			if (dash < 0)
+				r.add(part);
+			else {
+				long from = Long.parseLong(part.substring(0, dash));
+				long to = Long.parseLong(part.substring(dash + 1));
+				for (long s = from; s <= to; s++)
+					r.add(Long.toString(s));
+			}
+		}
+		return r.toArray(new String[r.size()]);
+	}
+
+	/**
+	 * The name of a run, made up of its settings, used to name its output files.
+	 */
+	static String name(Map<String, String> job) {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> e : job.entrySet()) {
+			if (sb.length() > 0)
+				sb.append('-');
+			sb.append(e.getKey()).append('_').append(e.getValue().replaceAll("[^A-Za-z0-9.]", "_"));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The command that starts a worker JVM for a run, with the same class path as this JVM.
+	 */
+	static List<String> command(Map<String, String> job, String jvmArgs) {
+		return command(HeadlessSimulator.class, job, jvmArgs);
+	}
+
+	/**
+	 * The command that starts a main class in a new JVM, with the same class path as this JVM.
+	 * @param main The class whose main method to run.
+	 * @param settings Settings that are passed as <code>--key=value</code> arguments.
+	 * @param jvmArgs Extra arguments for the JVM, separated by spaces.
+	 * @return The command.
+	 */
+	static List<String> command(Class<?> main, Map<String, String> settings, String jvmArgs) {
+		List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		if (!jvmArgs.isEmpty())
+			Collections.addAll(command, jvmArgs.split("\\s+"));
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(main.getName());
+		for (Map.Entry<String, String> e : settings.entrySet())
+			command.add("--" + e.getKey() + "=" + e.getValue());
+		return command;
+	}
+
+	/**
+	 * Run a single job in a worker JVM. Its results are streamed to a partial file, which is only
+	 * renamed to its final name when the run finishes successfully.
+	 * @return The timing report of the run.
+	 */
+	static String runJob(List<String> command, File dir, String name) throws IOException, InterruptedException {
+		File partial = new File(dir, name + PARTIAL_EXTENSION);
+		File done = new File(dir, name + DONE_EXTENSION);
+		final File log = new File(dir, name + ".log");
+		final Process process = new ProcessBuilder(command).start();
+
+		// Drain standard error on a separate thread, so the worker can't block on a full pipe.
+		final StringBuilder report = new StringBuilder();
+		Thread errors = new Thread(new Runnable() {
+			public void run() {
+				try {
+					copy(process.getErrorStream(), log, report);
+				} catch (IOException e) {
+					report.append(e.getMessage());
+				}
+			}
+		});
+		errors.start();
+		copy(process.getInputStream(), partial, null);
+		int exit = process.waitFor();
+		errors.join();
+
+		if (exit != 0)
+			throw new IOException("exit code " + exit + ", see " + log);
+		if (!partial.renameTo(done))
+			throw new IOException("could not rename " + partial);
+		return report.toString();
+	}
+
+	/**
+	 * Copy the lines of a stream to a file, remembering the last line if a builder is given.
+	 */
+	private static void copy(InputStream in, File file, StringBuilder lastLine) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		Writer writer = new BufferedWriter(new FileWriter(file), 1 << 16);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				writer.write(line);
+				writer.write('\n');
+				if (lastLine != null) {
+					lastLine.setLength(0);
+					lastLine.append(line);
+				}
+			}
+		} finally {
+			writer.close();
+			reader.close();
+		}
+	}
+}
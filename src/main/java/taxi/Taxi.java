@@ -1,7 +1,7 @@
 package taxi;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import javax.measure.unit.SI;
@@ -14,7 +14,6 @@ import com.github.rinde.rinsim.core.model.comm.CommDeviceBuilder;
 import com.github.rinde.rinsim.core.model.comm.CommUser;
 import com.github.rinde.rinsim.core.model.comm.Message;
 import com.github.rinde.rinsim.core.model.comm.MessageContents;
-import com.github.rinde.rinsim.core.model.pdp.PDPModel;
 import com.github.rinde.rinsim.core.model.pdp.Vehicle;
 import com.github.rinde.rinsim.core.model.pdp.VehicleDTO;
 import com.github.rinde.rinsim.core.model.road.MoveProgress;
@@ -25,10 +24,15 @@ import com.github.rinde.rinsim.geom.Point;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 
+import decisions.DecisionLog;
+import events.EventSink;
+import events.EventType;
 import gradient.FieldEmitter;
 import gradient.GradientModel;
-import taxi.TaxiSimulator.GasStation;
+import metrics.Metrics;
+import metrics.Phase;
 import utils.GraphUtils;
+import utils.Route;
 
 public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 	private static int _idGen = 0;
@@ -37,6 +41,7 @@ public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 	static final double SPEED = 4000d;								// 60km/h 
 	private static final double FUEL_EFFICIENCY = 0.006d;			// 6l/100km = 6000ml/1000000dm = 0.006ml/dm
 	public static final double FUEL_CAPACITY = 40000d;				// 40l (40000ml)
+	// Defaults for the settings that a Scenario can override per run.
 	public static final double REFUEL_THRESHOLD = 5000d;			// At 5l (5000ml) gas left, switch from gradient descent to refueling.
 	// Always try to make sure we don't go below this amount of fuel, to account for variance in consumption
 	// and to make sure that not too much fuel is used while idling and waiting for an offer to be accepted (100ml).
@@ -47,10 +52,10 @@ public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 	private static final double RELIABILITY = 1d;
 
 	// A linear rate at which the strength of the field diminishes over distance.
-	private static final double FIELD_DIMINISH_RATE = 0.05;
+	static final double FIELD_DIMINISH_RATE = 0.05;
 	private static final double FIELD_STRENGTH_MULTIPLIER = 2000d;	// A scalar for the strength of a field.
 	private static final double FIELD_STRENGTH_PADDING = 50d;
-	private static final double REDISTRIBUTION_THRESHOLD = 4000d;	// The resultant field must be at least this strong to force a move.
+	static final double REDISTRIBUTION_THRESHOLD = 4000d;	// The resultant field must be at least this strong to force a move.
 	// When 0, the field strength can go all the way to 0 at a peak distribution, this circumvents that.
 	public static final double DENSITY_EXPONENTIAL_SCALE = 3;		// Map densities using an exponential.
 
@@ -58,22 +63,46 @@ public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 	private GradientModel _gm;
 	private List<Customer> _queue = new ArrayList<Customer>();
 	private int _queuePosition = 0;			// Keep track of whether an accept message still matches the offer it was made for.
-	private List<Point> _path = new ArrayList<Point>();
+	private Route _path = new Route();
+	// The index in the path of every stop, the pickups and deliveries of the queued customers, see Route#getStart().
+	private final ArrayDeque<Integer> _stops = new ArrayDeque<Integer>();
 	private TaxiState _state = TaxiState.IDLE;
 	private double _fuelGauge = FUEL_CAPACITY;
+	private double _fuelAtStation;			// The fuel left when the taxi arrived at the gas station.
 	public double _totalFuelUsed = 0;
+	private double _deliveryFuelUsed = 0;	// The fuel used while carrying the current customer.
 	private Point _nearestStationPos;
 	private Point _redistributionPoint;
 	private RealVector _redistributionVector;
+	private final double _refuelThreshold;
+	private final double _fieldDiminishRate;
+	private final double _redistributionThreshold;
+	private final boolean _dormancy;
+	private final boolean _graphSteering;
+	private final long _offerLease;			// How long an offer is honoured after the queue changed, see handleAcceptRequest().
+	// The field epoch at which the taxi last found it had no reason to move, see moveToDistribution().
+	private long _settledEpoch = -1;
+	// The messages of this tick and the offers computed for them in advance, see OfferEvaluator.
+	// Both lists are reused every tick, so a tick without messages doesn't allocate.
+	private final List<Message> _messages = new ArrayList<Message>();
+	private boolean _messagesRead = false;
+	private final List<Offer> _offers = new ArrayList<Offer>();
 
 	/**
 	 * Constructor
 	 * @param startPosition The starting position.
 	 * @param capacity The amount of passengers that can be taken.
+	 * @param scenario The scenario providing the tunable settings.
 	 */
-	Taxi(Point startPosition, int capacity) {
+	Taxi(Point startPosition, int capacity, Scenario scenario) {
 		super(VehicleDTO.builder().capacity(capacity).startPosition(startPosition).speed(SPEED).build());
 		_id = _idGen++;
+		_refuelThreshold = scenario.getRefuelThreshold();
+		_fieldDiminishRate = scenario.getFieldDiminishRate();
+		_redistributionThreshold = scenario.getRedistributionThreshold();
+		_dormancy = scenario.isDormancyEnabled();
+		_graphSteering = scenario.getSteering().equals("graph");
+		_offerLease = scenario.getOfferLease();
 	}
 
 	@Override
@@ -85,33 +114,50 @@ public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 		if (!time.hasTimeLeft())
 			return;
 		
-		List<Message> messages = new ArrayList<Message>(_comm.getUnreadMessages());
+		long start = Metrics.start();
+		if (!_messagesRead)
+			readMessages();
+		int requests = 0;
 
 		// Check for requests and accept messages.
-		for (Iterator<Message> it = messages.iterator(); it.hasNext();) {
-			Message message = it.next();
-			MessageContents contents = message.getContents();
+		for (int i = 0; i < _messages.size(); i++) {
+			Message message = _messages.get(i);
+			switch (((Messages.TaxiMessage)message.getContents()).getKind()) {
 			// If we get an accept message, add the customer to the queue and start moving.
-			if (contents instanceof Messages.AcceptMessage) {
-				it.remove();
-				handleAcceptRequest(message);
-			}
+			case ACCEPT:
+				handleAcceptRequest(message, time.getTime());
+				break;
 			// Handle a request for pickup by sending an offer, equal to the distance that has to be traveled before reaching the customer.
-			if (contents instanceof Messages.RequestMessage) {
-				it.remove();
-				sendOffer(message);
+			case REQUEST:
+				if (requests < _offers.size())
+					sendOffer(message, _offers.get(requests), time.getTime());
+				else
+					sendOffer(message, time.getTime());
+				requests++;
+				break;
+			default:
+				break;
 			}
 		}
+		_messages.clear();
+		_messagesRead = false;
+		_offers.clear();
+		Metrics.stop(Phase.TAXI_MESSAGES, start);
 		if (_state == TaxiState.PICKING_UP)
 			performPickup(time);
 		if (_state == TaxiState.DELIVERING)
 			performDelivery(time);
 		if (_state == TaxiState.IDLE) {
-			// Go to a gas station if low on fuel.
-			while(_fuelGauge < REFUEL_THRESHOLD && time.hasTimeLeft()) {
+			// Go to a gas station if low on fuel. A taxi that declined every request it saw has no station chosen yet.
+			if (_fuelGauge < _refuelThreshold && _nearestStationPos == null) {
+				final RoadModel rm = getRoadModel();
+				_nearestStationPos = rm.getPosition(RoadModels.findClosestObject(position(), rm, GasStation.class));
+			}
+			while(_fuelGauge < _refuelThreshold && time.hasTimeLeft()) {
 				moveTo(_nearestStationPos, time);
-				if (_nearestStationPos.equals(this.getPosition().get())) {
-					_state = TaxiState.REFUELING;
+				if (_nearestStationPos.equals(position())) {
+					setState(TaxiState.REFUELING);
+					_fuelAtStation = _fuelGauge;
 					break;
 				}
 			}
@@ -125,28 +171,51 @@ public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 				useTime = time.getTimeLeft();
 			time.consume(useTime);
 			_fuelGauge = Math.min(FUEL_CAPACITY, _fuelGauge + useTime/REFUEL_RATE+1);
-			if (_fuelGauge == FUEL_CAPACITY)
-				_state = TaxiState.IDLE;
+			if (_fuelGauge == FUEL_CAPACITY) {
+				setState(TaxiState.IDLE);
+				EventSink.log(EventType.REFUEL, time.getTime(), -1, _id, FUEL_CAPACITY - _fuelAtStation);
+			}
 		}
 	}
 
+	/**
+	 * Move along the resultant field, if it is strong enough.
+	 * <p>
+	 * When the field was too weak to move the taxi, nothing will change until some field changes,
+	 * so the taxi goes dormant and skips the field computation until the field epoch changes.
+	 * @param time The TimeLapse object for the current simulation tick.
+	 */
 	private void moveToDistribution(TimeLapse time) {
-		// TODO: recompute fields less.
+		if (_dormancy && _settledEpoch == _gm.getEpoch())
+			return;
+		long start = Metrics.start();
+		long epoch = _gm.getEpoch();
 		_redistributionVector = _gm.getResultantField(this);
-		if (_redistributionVector.getNorm() > REDISTRIBUTION_THRESHOLD) {
+		// A target is driven to along the shortest path, a field is followed when strong enough to force a move.
+		boolean targeted = _gm.hasTargets();
+		if (targeted ? _redistributionVector.getNorm() > 0 : _redistributionVector.getNorm() > _redistributionThreshold) {
 			while (time.hasTimeLeft()) {
-				Point p = getPosition().get();
+				Point p = position();
 				if (p.equals(_redistributionPoint) || _redistributionPoint == null) {
-					Point newPoint = GraphUtils.getClosestNode(new Point(p.x+_redistributionVector.getEntry(0), p.y+_redistributionVector.getEntry(1)));
-//					Point newPoint = GraphUtils.getSmallestAngle(p, _redistributionVector);
-					// Don't do anything if being pushed to the same point.
-					if (newPoint.equals(_redistributionPoint))
+					Point newPoint = null;
+					// Follow the road that goes most in the direction of the field.
+					if (_graphSteering && !targeted)
+						newPoint = GraphUtils.getSmallestAngle(p, _redistributionVector.getEntry(0), _redistributionVector.getEntry(1));
+					// Go to the node closest to where the field points, also when not on a node yet.
+					if (newPoint == null && (!_graphSteering || targeted || GraphUtils.getNodeId(p) < 0))
+						newPoint = GraphUtils.getClosestNode(new Point(p.x+_redistributionVector.getEntry(0), p.y+_redistributionVector.getEntry(1)));
+					// Don't do anything if being pushed to the same point, or if no road goes the right way.
+					if (newPoint == null || newPoint.equals(_redistributionPoint))
 						break;
 					_redistributionPoint = newPoint;
 				}
 				moveTo(_redistributionPoint, time);
 			}
 		}
+		// If neither this taxi nor anything else changed a field, the next computation would give the same result.
+		if (_gm.getEpoch() == epoch && _gm.isFieldStatic())
+			_settledEpoch = epoch;
+		Metrics.stop(Phase.MOVE_TO_DISTRIBUTION, start);
 	}
 	
 	public RealVector getRedustributionVector() {
@@ -158,20 +227,14 @@ public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 	 * @param time The TimeLapse object for the current simulation tick.
 	 */
 	private void performPickup(TimeLapse time) {
-		final RoadModel rm = getRoadModel();
-		final PDPModel pm = getPDPModel();
-		while (time.hasTimeLeft()) {
-			moveTo(_path.get(0), time);
-			// Check if we've made it to the next point.
-			if (rm.getPosition(this).equals(_path.get(0))) {
-				_path.remove(0);
-				if (rm.getPosition(this).equals(_queue.get(0).getPickupLocation())) {
-					// pickup customer
-					pm.pickup(this, _queue.get(0), time);
-					_state = TaxiState.DELIVERING;
-				}
-			}
-		}
+		// The pickup itself takes time, so it waits for the next tick if the drive used up this one.
+		if (!follow(_stops.peekFirst(), time) || !time.hasTimeLeft())
+			return;
+		_stops.pollFirst();
+		Customer customer = _queue.get(0);
+		EventSink.log(EventType.PICKUP, time.getTime(), customer.getId(), _id, time.getTime() - customer.getRequestTime());
+		getPDPModel().pickup(this, customer, time);
+		setState(TaxiState.DELIVERING);
 	}
 
 	/**
@@ -179,22 +242,104 @@ public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 	 * @param time The TimeLapse object for the current simulation tick.
 	 */
 	private void performDelivery(TimeLapse time) {
+		if (!follow(_stops.peekFirst(), time) || !time.hasTimeLeft())
+			return;
+		_stops.pollFirst();
 		final RoadModel rm = getRoadModel();
-		final PDPModel pm = getPDPModel();
-		while (time.hasTimeLeft()) {
-			moveTo(_path.get(0), time);
-			if (rm.getPosition(this).equals(_path.get(0))) {
-				_path.remove(0);
-				if (rm.getPosition(this).equals(_queue.get(0).getDeliveryLocation())) {
-					// deliver when we arrive
-					pm.deliver(this, _queue.remove(0), time);
-					if (_queue.isEmpty()) {
-						_state = TaxiState.IDLE;
-						_nearestStationPos = rm.getPosition(RoadModels.findClosestObject(this.getPosition().get(), rm, GasStation.class));
-					}
-					else
-						_state = TaxiState.PICKING_UP;
-				}
+		Customer customer = _queue.remove(0);
+		EventSink.log(EventType.DELIVERY, time.getTime(), customer.getId(), _id, customer.getPathLength(), _deliveryFuelUsed, 0);
+		_deliveryFuelUsed = 0;
+		getPDPModel().deliver(this, customer, time);
+		if (_queue.isEmpty()) {
+			setState(TaxiState.IDLE);
+			_nearestStationPos = rm.getPosition(RoadModels.findClosestObject(position(), rm, GasStation.class));
+		}
+		else
+			setState(TaxiState.PICKING_UP);
+	}
+
+	/**
+	 * Follow the planned path up to and including a stop, in a single move along all its points.
+	 * @param stop The index of the stop in the path.
+	 * @param time The TimeLapse object for the current simulation tick.
+	 * @return Whether the taxi is at the stop.
+	 */
+	private boolean follow(int stop, TimeLapse time) {
+		// Points the taxi is already at, e.g. the start of a path from its own position, need no move.
+		while (_path.getStart() <= stop && _path.first().equals(position()))
+			_path.removeFirst();
+		if (_path.getStart() <= stop && time.hasTimeLeft())
+			consumeFuel(getRoadModel().followPath(this, _path.asQueue(stop - _path.getStart() + 1), time));
+		return _path.getStart() > stop;
+	}
+
+	/**
+	 * Append a leg to the planned path, ending at a stop.
+	 * @param path The path of the leg, starting where the previous leg ends, or at the taxi.
+	 */
+	private void addLeg(List<Point> path) {
+		// Don't repeat the end of the previous leg.
+		if (!_path.isEmpty() && path.get(0).equals(_path.get(_path.size() - 1)))
+			path = path.subList(1, path.size());
+		_path.addAll(path);
+		_stops.addLast(_path.getEnd() - 1);
+	}
+
+	/**
+	 * Send a message to a customer, and make sure the customer handles it in the next tick.
+	 * @param contents The message to send.
+	 * @param customer The customer to send it to.
+	 */
+	private void send(MessageContents contents, Customer customer) {
+		_comm.send(contents, customer);
+		customer.wake();
+	}
+
+	/**
+	 * Read the messages of this tick ahead of the tick, so the offers for the requests can be computed
+	 * in advance by {@link #computeOffers()}. Only the requests before the first accept message can be,
+	 * because an accept changes the tasks that the later offers are based on.
+	 * Must be called on the simulation thread, before the taxi is ticked.
+	 * @return Whether there are offers to compute.
+	 */
+	boolean prepareOffers() {
+		readMessages();
+		for (int i = 0; i < _messages.size(); i++) {
+			Messages.Kind kind = ((Messages.TaxiMessage)_messages.get(i).getContents()).getKind();
+			if (kind == Messages.Kind.ACCEPT)
+				break;
+			if (kind == Messages.Kind.REQUEST)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Move the unread messages into the reusable message buffer. Checking the unread count first
+	 * avoids asking the device for an empty list of messages.
+	 */
+	private void readMessages() {
+		if (_comm.getUnreadCount() > 0)
+			_messages.addAll(_comm.getUnreadMessages());
+		_messagesRead = true;
+	}
+
+	/**
+	 * Compute the offers for the requests read by {@link #prepareOffers()}, up to the first accept message.
+	 * This only reads the state of the taxi and the road model, so the offers of different taxis can be
+	 * computed in parallel, as long as nothing else changes during the computation.
+	 */
+	void computeOffers() {
+		for (int i = 0; i < _messages.size(); i++) {
+			Message message = _messages.get(i);
+			Messages.Kind kind = ((Messages.TaxiMessage)message.getContents()).getKind();
+			if (kind == Messages.Kind.ACCEPT)
+				break;
+			if (kind == Messages.Kind.REQUEST) {
+				long start = Metrics.start();
+				_offers.add(computeOffer((Customer)message.getSender(),
+						((Messages.RequestMessage)message.getContents()).getMaxOffer()));
+				Metrics.stop(Phase.SEND_OFFER, start);
 			}
 		}
 	}
@@ -202,61 +347,146 @@ public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 	/**
 	 * Send an offer message.
 	 * @param message The request message to respond to.
+	 * @param time The current time.
 	 */
-	private void sendOffer(Message message) {
-		final RoadModel rm = getRoadModel();
+	private void sendOffer(Message message, long time) {
+		long start = Metrics.start();
+		sendOffer(message, computeOffer((Customer)message.getSender(),
+				((Messages.RequestMessage)message.getContents()).getMaxOffer()), time);
+		Metrics.stop(Phase.SEND_OFFER, start);
+	}
+
+	/**
+	 * Send an offer message with an offer that has already been computed.
+	 * @param message The request message to respond to.
+	 * @param offer The offer.
+	 * @param time The current time.
+	 */
+	private void sendOffer(Message message, Offer offer, long time) {
 		Customer customer = (Customer)message.getSender();
+		try {
+			if (offer.declined) {
+				send(new Messages.OfferMessage(offer.distance, _queuePosition, time, true), customer);
+				return;
+			}
+			_nearestStationPos = offer.station;
+			send(new Messages.OfferMessage(offer.distance, _queuePosition, time), customer);
+			EventSink.log(EventType.OFFER, time, customer.getId(), _id, offer.distance);
+			DecisionLog.offer(time, customer.getId(), _id, _queuePosition, offer.distance);
+		} catch(IllegalArgumentException e) { }		// Receiver has moved on and is no longer listening.
+	}
+
+	/**
+	 * Compute the offer for a customer, without changing the taxi's state.
+	 * <p>
+	 * Paths are as long as the straight lines between their points, so the straight line to the pickup
+	 * is a lower bound on the offer. When even that is more than the customer would take, the offer is
+	 * declined without searching for the shortest paths, which most taxis in a large city do for most
+	 * requests.
+	 * @param customer The customer that requested a taxi.
+	 * @param maxOffer The largest offer the customer would take.
+	 * @return The offer and the gas station that the taxi would go to after it, or a declined offer
+	 *         with the lower bound as its distance.
+	 */
+	private Offer computeOffer(Customer customer, double maxOffer) {
+		final RoadModel rm = getRoadModel();
 		double offer;
+		Point nearestStationPos;
 		
-		double distanceTasks = GraphUtils.getPathLength(_path);		// Distance that has to be traveled to complete current tasks.
+		double distanceTasks = _path.getLength();		// Distance that has to be traveled to complete current tasks.
+		Point from = _queue.isEmpty() ? position() : getFreeLocation();
+		double bound = distanceTasks + Point.distance(from, customer.getPickupLocation());
+		if (bound >= maxOffer)
+			return Offer.declined(bound);
 		double distanceFromEndpoint = distanceAfterFree(customer);	// Distance from the first moment the taxi is free.
 	
 		// Check how far it will be to go to a fueling station after the delivery.
-		_nearestStationPos = rm.getPosition(RoadModels.findClosestObject(customer.getDeliveryLocation(), rm, GasStation.class));
-		double refuelDistance = GraphUtils.getPathLength(rm.getShortestPathTo(customer.getDeliveryLocation(), _nearestStationPos));
+		nearestStationPos = rm.getPosition(RoadModels.findClosestObject(customer.getDeliveryLocation(), rm, GasStation.class));
+		double refuelDistance = GraphUtils.getShortestPathLength(customer.getDeliveryLocation(), nearestStationPos);
 		// Check if the aggregate distance doesn't bring us in a too low fuel state.
 		if (_fuelGauge - fuelNeeded(distanceTasks + distanceFromEndpoint + refuelDistance) < REFUEL_BUFFER) {
 			// The taxi must refuel first, so the refueling has to be done first and computed along with the current offer.
 			if (_queue.isEmpty())
-				_nearestStationPos = rm.getPosition(RoadModels.findClosestObject(this.getPosition().get(), rm, GasStation.class));
+				nearestStationPos = rm.getPosition(RoadModels.findClosestObject(position(), rm, GasStation.class));
 			else
-				_nearestStationPos = rm.getPosition(RoadModels.findClosestObject(getFreeLocation(), rm, GasStation.class));
-			refuelDistance = GraphUtils.getShortestPathLength(customer.getDeliveryLocation(), _nearestStationPos) +
-					GraphUtils.getShortestPathLength(customer.getDeliveryLocation(), _nearestStationPos);
+				nearestStationPos = rm.getPosition(RoadModels.findClosestObject(getFreeLocation(), rm, GasStation.class));
+			refuelDistance = GraphUtils.getShortestPathLength(customer.getDeliveryLocation(), nearestStationPos) +
+					GraphUtils.getShortestPathLength(customer.getDeliveryLocation(), nearestStationPos);
 			offer = distanceTasks + distanceFromEndpoint + refuelDistance;
 		} else	// No fuel problems, take the tasks distance and distance after tasks to customer.
 			offer = distanceTasks + distanceFromEndpoint;
-		
-		try {
-			_comm.send(new Messages.OfferMessage(offer, _queuePosition), message.getSender());
-		} catch(IllegalArgumentException e) { }		// Receiver has moved on and is no longer listening.
+		return new Offer(offer, nearestStationPos);
+	}
+
+	/**
+	 * An offer, along with the gas station the taxi would go to after it.
+	 */
+	private static class Offer {
+		final double distance;
+		final Point station;
+		final boolean declined;		// Not worth making, see computeOffer(), the distance is a lower bound.
+
+		Offer(double distance, Point station) {
+			this(distance, station, false);
+		}
+
+		private Offer(double distance, Point station, boolean declined) {
+			this.distance = distance;
+			this.station = station;
+			this.declined = declined;
+		}
+
+		static Offer declined(double bound) {
+			return new Offer(bound, null, true);
+		}
 	}
 
 	/**
 	 * Handle an accept message, by replying with a "no longer available" or "confirm".
+	 * <p>
+	 * An offer made on the current queue is always confirmed. An offer made before the queue changed
+	 * is leased: while the lease runs, it is priced again on the current queue and still confirmed if
+	 * the customer takes the new price, so a customer that accepted at the same time as another one
+	 * doesn't have to ask the whole fleet again.
 	 * @param message The accept message to respond to.
+	 * @param time The current time.
 	 */
-	private void handleAcceptRequest(Message message) {
+	private void handleAcceptRequest(Message message, long time) {
+		long start = Metrics.start();
+		Messages.AcceptMessage accept = (Messages.AcceptMessage)message.getContents();
+		int offerId = accept.getId();
+		Customer customer = (Customer)message.getSender();
+		double price = Double.NaN;
+		if (offerId == _queuePosition)
+			price = accept.getOffer();
+		else if (time - accept.getOfferTime() <= _offerLease) {
+			Offer offer = computeOffer(customer, accept.getMaxOffer());
+			if (!offer.declined && offer.distance < accept.getMaxOffer()) {
+				price = offer.distance;
+				_nearestStationPos = offer.station;
+			}
+		}
 		// Check if the offer that has been responded to is still valid.
-		if (((Messages.AcceptMessage)message.getContents()).getId() != _queuePosition)
-			_comm.send(new Messages.NoLongerAvailableMessage(), message.getSender());
-		else {
-			// If the offer is still valid, always accept.
+		if (Double.isNaN(price)) {
+			send(new Messages.NoLongerAvailableMessage(), customer);
+			DecisionLog.answer(time, customer.getId(), _id, offerId, false);
+		} else {
 			final RoadModel rm = getRoadModel();
-			Customer customer = (Customer)message.getSender();
-			_comm.send(new Messages.ConfirmMessage(), customer);
+			send(new Messages.ConfirmMessage(price), customer);
+			DecisionLog.answer(time, customer.getId(), _id, offerId, true);
 			// Add the new path.
-			if (_path.isEmpty())
-				_state = TaxiState.PICKING_UP;
+			if (_queue.isEmpty())
+				setState(TaxiState.PICKING_UP);
 			// Add different path depending on whether anything is queued.
 			if (_queue.isEmpty())
-				_path.addAll(rm.getShortestPathTo(this, customer.getPickupLocation()));	
+				addLeg(rm.getShortestPathTo(this, customer.getPickupLocation()));
 			else
-				_path.addAll(rm.getShortestPathTo(getFreeLocation(), customer.getPickupLocation()));	
-			_path.addAll(rm.getShortestPathTo(customer.getPickupLocation(), customer.getDeliveryLocation()));
+				addLeg(GraphUtils.getShortestPath(getFreeLocation(), customer.getPickupLocation()));
+			addLeg(GraphUtils.getShortestPath(customer.getPickupLocation(), customer.getDeliveryLocation()));
 			_queue.add(customer);
 			_queuePosition++;
 		}
+		Metrics.stop(Phase.HANDLE_ACCEPT, start);
 	}
 
 	/**
@@ -280,20 +510,52 @@ public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 		return Optional.fromNullable(getRoadModel().getPosition(this));
 	}
 
+	/**
+	 * Get the position of the taxi without wrapping it, for use while it is on the road.
+	 * @return The position.
+	 */
+	private Point position() {
+		return getRoadModel().getPosition(this);
+	}
+
 	public ImmutableList<Customer> getQueue() {
 		return ImmutableList.copyOf(_queue);
 	}
+
+	int getQueueSize() {
+		return _queue.size();
+	}
+
+	/**
+	 * Get a queued customer, without copying the queue.
+	 * @param i The position in the queue.
+	 * @return The customer.
+	 */
+	Customer getQueued(int i) {
+		return _queue.get(i);
+	}
 	
 	/**
 	 * Move towards a point, considering fuel constraints.
 	 */
 	public void moveTo(Point p, TimeLapse time) {
-		final RoadModel rm = getRoadModel();
-		MoveProgress progress = rm.moveTo(this, p, time);
+		consumeFuel(getRoadModel().moveTo(this, p, time));
+	}
+
+	/**
+	 * Charge the fuel used by a move.
+	 * @param progress The progress of the move.
+	 */
+	private void consumeFuel(MoveProgress progress) {
 		double d = progress.distance().doubleValue(SI.CENTIMETER)/1000;	// / 1000, TODO: something is wrong with the units, of by x100.
 		double fuelUsed = fuelNeeded(d);
 		_fuelGauge -= fuelUsed;
 		_totalFuelUsed += fuelUsed;
+		if (_state == TaxiState.DELIVERING)
+			_deliveryFuelUsed += fuelUsed;
+		// Only idle taxis have a field, so only their moves change the fields.
+		if (d > 0 && _state == TaxiState.IDLE)
+			_gm.fieldChanged();
 	}
 	
 	/**
@@ -323,10 +585,18 @@ public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 
 	/**
 	 * Return the path that the taxi is currently planning to follow for tasks.
-	 * @return The path that the taxi is currently planning to follow for tasks.
+	 * @return A copy of the path that the taxi is currently planning to follow for tasks.
+	 */
+	public Route getPlannedPath() {
+		return new Route(_path);
+	}
+	
+	/**
+	 * Get the fuel level below which the taxi goes to refuel.
+	 * @return The taxi's refuel threshold.
 	 */
-	public List<Point> getPlannedPath() {
-		return new ArrayList<Point>(_path);
+	public double getRefuelThreshold() {
+		return _refuelThreshold;
 	}
 	
 	/**
@@ -345,6 +615,17 @@ public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 		return _state;
 	}
 	
+	/**
+	 * Change the taxi's state, the strength of its field depends on it.
+	 * @param state The new state.
+	 */
+	private void setState(TaxiState state) {
+		if (_state != state) {
+			_state = state;
+			_gm.fieldChanged();
+		}
+	}
+	
 	public static enum TaxiState {
 		IDLE, PICKING_UP, DELIVERING, REFUELING
 	}
@@ -360,7 +641,7 @@ public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 	public double getStrength() {
 		if (_state != TaxiState.IDLE)
 			return 0d;
-		Point p = getPosition().get();
+		Point p = position();
 		double peak = _gm.getPeakDensity();
 		double density = _gm.getMapDistribution().density(GraphUtils.scaleFromGraph(p));
 		// Map the density 0~1 to an exponential, at the same time increasing the power difference in low density areas.
@@ -368,11 +649,11 @@ public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 	}
 
 	public RealVector getField(Point p) {
-		Point from = getPosition().get();
+		Point from = position();
 		RealVector v = new ArrayRealVector(new double[]{p.x-from.x, p.y-from.y});
 		double l = v.getNorm();
 		double strength = getStrength();								// Undiminished field strength.
-		double fieldDrop = Math.min(strength, l*FIELD_DIMINISH_RATE);	// Diminished strength, to a max of the maximum strength.
+		double fieldDrop = Math.min(strength, l*_fieldDiminishRate);	// Diminished strength, to a max of the maximum strength.
 		strength -= fieldDrop;
 		// The drop in field strength is linearly correlated to the distance.
 		if (l != 0)
@@ -381,6 +662,6 @@ public class Taxi extends Vehicle implements CommUser, FieldEmitter {
 	}
 
 	public double getRange() {
-		return getStrength()/FIELD_DIMINISH_RATE;
+		return getStrength()/_fieldDiminishRate;
 	}
 }
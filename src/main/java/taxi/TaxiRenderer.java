@@ -15,13 +15,13 @@
  */
 package taxi;
 
-import java.util.Iterator;
-import java.util.Set;
+import java.util.Arrays;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.MouseEvent;
 import org.eclipse.swt.events.MouseMoveListener;
 import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Event;
@@ -31,14 +31,13 @@ import org.eclipse.swt.widgets.Widget;
 
 import com.github.rinde.rinsim.core.model.DependencyProvider;
 import com.github.rinde.rinsim.core.model.ModelBuilder.AbstractModelBuilder;
-import com.github.rinde.rinsim.core.model.pdp.PDPModel;
 import com.github.rinde.rinsim.core.model.pdp.PDPModel.VehicleState;
-import com.github.rinde.rinsim.core.model.road.RoadModel;
-import com.github.rinde.rinsim.geom.Point;
 import com.github.rinde.rinsim.ui.renderers.CanvasRenderer.AbstractCanvasRenderer;
 import com.github.rinde.rinsim.ui.renderers.ViewPort;
 import com.google.auto.value.AutoValue;
 
+import metrics.Metrics;
+import metrics.Phase;
 import taxi.Taxi.TaxiState;
 
 /**
@@ -55,14 +54,18 @@ public class TaxiRenderer extends AbstractCanvasRenderer {
 	static final int FUEL_BAR_OFFSET = 40;
 	static final int REFUEL_ICON_WIDTH = 8;
 	static final int REFUEL_ICON_OFFSET = 30;
+	// Density view, used when too many taxis are in view to draw each of them, see LevelOfDetail.
+	static final int DENSITY_CELL = 16;				// The size of a density cell, in pixels.
+	static final int CLUSTER_SIZE = 5;				// The number of taxis in a cell from which a cluster is drawn.
+	static final int DENSITY_GROUPS = 3;			// Idle, busy and refueling taxis.
+	static final int[] DENSITY_COLORS = {SWT.COLOR_DARK_BLUE, SWT.COLOR_DARK_GREEN, SWT.COLOR_RED};
 
 	Composite viewer;
-	final RoadModel _rm;
-	final PDPModel _pm;
+	final SnapshotModel _snapshots;
+	private final int[][] _densityCounts = new int[DENSITY_GROUPS][0];	// Reused between frames.
 
-	TaxiRenderer(RoadModel r, PDPModel p) {
-		_rm = r;
-		_pm = p;
+	TaxiRenderer(SnapshotModel snapshots) {
+		_snapshots = snapshots;
 	}
 
 	public void renderStatic(GC gc, ViewPort vp) {
@@ -76,89 +79,152 @@ public class TaxiRenderer extends AbstractCanvasRenderer {
 	}
 	
 	public void renderDynamic(GC gc, ViewPort vp, long time) {
+		long start = Metrics.start();
+		final RenderSnapshot snapshot = _snapshots.acquire();
+		if (snapshot == null)
+			return;
 		org.eclipse.swt.graphics.Point cursorLocation = Display.getCurrent().getCursorLocation();
-		final Set<Taxi> taxis = _rm.getObjectsOfType(Taxi.class);
-
-		synchronized (taxis) {
-			for (final Taxi t : taxis) {
-				final Point p = _rm.getPosition(t);
-				final int x = vp.toCoordX(p.x) + X_OFFSET;
-				final int y = vp.toCoordY(p.y) + Y_OFFSET;
-				final VehicleState vs = _pm.getVehicleState(t);
-
-				// Draw the path if the mouse is over a taxi, for that we need the origin of the window.
-				org.eclipse.swt.graphics.Point origin = viewer.toDisplay(0, 0);
-				if (Math.max(Math.abs(cursorLocation.x - origin.x - vp.toCoordX(p.x)+4),
-						Math.abs(cursorLocation.y - origin.y - vp.toCoordY(p.y)+6)) < 18) {
-					// Color paths gray.
-					gc.setForeground(gc.getDevice().getSystemColor(SWT.COLOR_BLACK));
-					gc.setLineWidth(2);
-					Iterator<Point> it = t.getPlannedPath().iterator();
-					if (it.hasNext()) {
-						Point prev = it.next();
-						while(it.hasNext()) {
-							Point curr = it.next();
-							gc.drawLine(vp.toCoordX(prev.x), vp.toCoordY(prev.y), vp.toCoordX(curr.x), vp.toCoordY(curr.y));
-							prev = curr;
-						}
-					}
-					gc.setLineWidth(1);
-					// Mark endpoints.
-					boolean first = true;
-					for (Customer c : t.getQueue()) {
-						if (!first || t.getState() != TaxiState.DELIVERING) {
-							// Pick-up point.
-							Point pickupLoc = c.getPickupLocation();
-							gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_DARK_GREEN));
-							int pickupX = vp.toCoordX(pickupLoc.x), pickupY = vp.toCoordY(pickupLoc.y);
-							gc.fillOval(pickupX-3, pickupY-3, 6, 6);
-						}
-						first = false;
-						// Delivery point.
-						Point deliveryLoc = c.getDeliveryLocation();
-						gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_DARK_RED));
-						int deliveryX = vp.toCoordX(deliveryLoc.x), deliveryY = vp.toCoordY(deliveryLoc.y);
-						gc.fillOval(deliveryX-3, deliveryY-3, 6, 6);
-					}
-				}
-					
-				String text = null;
-				final int inTaxi = (int) _pm.getContentsSize(t);
-				final int size = (int)t.getQueue().size();
-				if (vs == VehicleState.DELIVERING) {
-					text = "DELIVERING";
-				} else if (vs == VehicleState.PICKING_UP) {
-					text = "PICKUP";
-				} else {
-					text = "#"+t._id+" "+Integer.toString(inTaxi) + " (" + Integer.toString(size-inTaxi) + ")";
-				}
+		// Draw the path if the mouse is over a taxi, for that we need the origin of the window.
+		org.eclipse.swt.graphics.Point origin = viewer.toDisplay(0, 0);
+		final Rectangle clip = gc.getClipping();
+		// With too many taxis in view, draw their density instead, and only the hovered taxi in detail.
+		final boolean detailed = LevelOfDetail.isDetailed(snapshot, vp, clip);
+		if (!detailed)
+			renderDensity(gc, vp, snapshot, clip);
+		int highlighted = -1;
 
-				if (text != null) {
-					final org.eclipse.swt.graphics.Point extent = gc.textExtent(text);
+		for (int i = 0; i < snapshot.getNumTaxis(); i++) {
+			final int sx = vp.toCoordX(snapshot.getTaxiX(i));
+			final int sy = vp.toCoordY(snapshot.getTaxiY(i));
+			final boolean hovered = Math.max(Math.abs(cursorLocation.x - origin.x - sx+4),
+					Math.abs(cursorLocation.y - origin.y - sy+6)) < 18;
+			if (hovered)
+				highlighted = snapshot.getTaxiId(i);
+			if (hovered || (detailed && LevelOfDetail.isVisible(sx, sy, clip)))
+				renderTaxi(gc, vp, snapshot, i, hovered);
+		}
+		_snapshots.setHighlighted(highlighted);
+		Metrics.stop(Phase.RENDER_TAXIS, start);
+	}
 
-					gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_DARK_BLUE));
-					gc.fillRoundRectangle(x - extent.x / 2, y - extent.y / 2, extent.x + 2, extent.y + 2,
-							ROUND_RECT_ARC_HEIGHT, ROUND_RECT_ARC_HEIGHT);
-					gc.setForeground(gc.getDevice().getSystemColor(SWT.COLOR_WHITE));
+	/**
+	 * Draw a taxi in full detail: its label and fuel gauge, and its plan when it is hovered.
+	 */
+	private void renderTaxi(GC gc, ViewPort vp, RenderSnapshot snapshot, int i, boolean hovered) {
+		final int x = vp.toCoordX(snapshot.getTaxiX(i)) + X_OFFSET;
+		final int y = vp.toCoordY(snapshot.getTaxiY(i)) + Y_OFFSET;
+		final VehicleState vs = snapshot.getVehicleState(i);
 
-					gc.drawText(text, x - extent.x / 2 + 1, y - extent.y / 2 + 1, true);
-				}
-				// Render fuel gauge.
-				int fuelOffset = (int)(t.getFuelGauge() / t.getFuelCapacity() * FUEL_BAR_WIDTH);
-				gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_GREEN));
-				gc.fillRectangle(x-FUEL_BAR_WIDTH/2+1, y+FUEL_BAR_OFFSET,
-						fuelOffset, FUEL_BAR_HEIGHT);
-				gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_RED));
-				gc.fillRectangle(x-FUEL_BAR_WIDTH/2+1+fuelOffset, y+FUEL_BAR_OFFSET,
-						FUEL_BAR_WIDTH-fuelOffset, FUEL_BAR_HEIGHT);
-				if (t.getFuelGauge() < Taxi.REFUEL_THRESHOLD) {
-					// Show refuel icon.
-					gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_RED));
-					gc.fillOval(x-REFUEL_ICON_WIDTH/2+10, y+REFUEL_ICON_OFFSET,
-							REFUEL_ICON_WIDTH, REFUEL_ICON_WIDTH);
+		if (hovered) {
+			// Color paths gray.
+			gc.setForeground(gc.getDevice().getSystemColor(SWT.COLOR_BLACK));
+			gc.setLineWidth(2);
+			// The path is only in the snapshot once the taxi has been highlighted.
+			if (snapshot.getPathTaxi() == snapshot.getTaxiId(i)) {
+				for (int j = 1; j < snapshot.getPathLength(); j++)
+					gc.drawLine(vp.toCoordX(snapshot.getPathX(j-1)), vp.toCoordY(snapshot.getPathY(j-1)),
+							vp.toCoordX(snapshot.getPathX(j)), vp.toCoordY(snapshot.getPathY(j)));
+			}
+			gc.setLineWidth(1);
+			// Mark endpoints.
+			for (int j = snapshot.getQueueStart(i); j < snapshot.getQueueEnd(i); j++) {
+				if (j != snapshot.getQueueStart(i) || snapshot.getTaxiState(i) != TaxiState.DELIVERING) {
+					// Pick-up point.
+					gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_DARK_GREEN));
+					int pickupX = vp.toCoordX(snapshot.getPickupX(j)), pickupY = vp.toCoordY(snapshot.getPickupY(j));
+					gc.fillOval(pickupX-3, pickupY-3, 6, 6);
 				}
+				// Delivery point.
+				gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_DARK_RED));
+				int deliveryX = vp.toCoordX(snapshot.getDeliveryX(j)), deliveryY = vp.toCoordY(snapshot.getDeliveryY(j));
+				gc.fillOval(deliveryX-3, deliveryY-3, 6, 6);
+			}
+		}
+
+		String text = null;
+		final int inTaxi = snapshot.getPassengers(i);
+		final int size = snapshot.getQueueEnd(i) - snapshot.getQueueStart(i);
+		if (vs == VehicleState.DELIVERING) {
+			text = "DELIVERING";
+		} else if (vs == VehicleState.PICKING_UP) {
+			text = "PICKUP";
+		} else {
+			text = "#"+snapshot.getTaxiId(i)+" "+Integer.toString(inTaxi) + " (" + Integer.toString(size-inTaxi) + ")";
+		}
+
+		if (text != null) {
+			final org.eclipse.swt.graphics.Point extent = gc.textExtent(text);
+
+			gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_DARK_BLUE));
+			gc.fillRoundRectangle(x - extent.x / 2, y - extent.y / 2, extent.x + 2, extent.y + 2,
+					ROUND_RECT_ARC_HEIGHT, ROUND_RECT_ARC_HEIGHT);
+			gc.setForeground(gc.getDevice().getSystemColor(SWT.COLOR_WHITE));
+
+			gc.drawText(text, x - extent.x / 2 + 1, y - extent.y / 2 + 1, true);
+		}
+		// Render fuel gauge.
+		int fuelOffset = (int)(snapshot.getFuel(i) / snapshot.getFuelCapacity() * FUEL_BAR_WIDTH);
+		gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_GREEN));
+		gc.fillRectangle(x-FUEL_BAR_WIDTH/2+1, y+FUEL_BAR_OFFSET,
+				fuelOffset, FUEL_BAR_HEIGHT);
+		gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_RED));
+		gc.fillRectangle(x-FUEL_BAR_WIDTH/2+1+fuelOffset, y+FUEL_BAR_OFFSET,
+				FUEL_BAR_WIDTH-fuelOffset, FUEL_BAR_HEIGHT);
+		if (snapshot.getFuel(i) < snapshot.getRefuelThreshold(i)) {
+			// Show refuel icon.
+			gc.setBackground(gc.getDevice().getSystemColor(SWT.COLOR_RED));
+			gc.fillOval(x-REFUEL_ICON_WIDTH/2+10, y+REFUEL_ICON_OFFSET,
+					REFUEL_ICON_WIDTH, REFUEL_ICON_WIDTH);
+		}
+	}
+
+	/**
+	 * Draw the density of the taxis in view: the screen is divided in cells, which are colored by the
+	 * most common state of the taxis in them, more opaque the more taxis there are. Cells with many
+	 * taxis get a cluster glyph that grows with their number.
+	 */
+	private void renderDensity(GC gc, ViewPort vp, RenderSnapshot snapshot, Rectangle clip) {
+		final int columns = clip.width / DENSITY_CELL + 1;
+		final int rows = clip.height / DENSITY_CELL + 1;
+		final int cells = columns * rows;
+		if (_densityCounts[0].length < cells)
+			for (int g = 0; g < DENSITY_GROUPS; g++)
+				_densityCounts[g] = new int[cells];
+		for (int g = 0; g < DENSITY_GROUPS; g++)
+			Arrays.fill(_densityCounts[g], 0, cells, 0);
+
+		for (int i = 0; i < snapshot.getNumTaxis(); i++) {
+			final int column = (vp.toCoordX(snapshot.getTaxiX(i)) - clip.x) / DENSITY_CELL;
+			final int row = (vp.toCoordY(snapshot.getTaxiY(i)) - clip.y) / DENSITY_CELL;
+			if (column < 0 || row < 0 || column >= columns || row >= rows)
+				continue;
+			final TaxiState state = snapshot.getTaxiState(i);
+			final int group = state == TaxiState.IDLE ? 0 : (state == TaxiState.REFUELING ? 2 : 1);
+			_densityCounts[group][row * columns + column]++;
+		}
+
+		final int alpha = gc.getAlpha();
+		for (int c = 0; c < cells; c++) {
+			int total = 0, dominant = 0;
+			for (int g = 0; g < DENSITY_GROUPS; g++) {
+				total += _densityCounts[g][c];
+				if (_densityCounts[g][c] > _densityCounts[dominant][c])
+					dominant = g;
+			}
+			if (total == 0)
+				continue;
+			final int x = clip.x + (c % columns) * DENSITY_CELL;
+			final int y = clip.y + (c / columns) * DENSITY_CELL;
+			gc.setBackground(gc.getDevice().getSystemColor(DENSITY_COLORS[dominant]));
+			gc.setAlpha(Math.min(200, 40 + 20*total));
+			gc.fillRectangle(x, y, DENSITY_CELL, DENSITY_CELL);
+			if (total >= CLUSTER_SIZE) {
+				final int d = Math.min(DENSITY_CELL, (int)(4*Math.sqrt(total)));
+				gc.setAlpha(255);
+				gc.fillOval(x + (DENSITY_CELL - d)/2, y + (DENSITY_CELL - d)/2, d, d);
 			}
 		}
+		gc.setAlpha(alpha);
 	}
 
 	static Builder builder() {
@@ -169,13 +235,11 @@ public class TaxiRenderer extends AbstractCanvasRenderer {
 	abstract static class Builder extends AbstractModelBuilder<TaxiRenderer, Void> {
  
 		Builder() {
-			setDependencies(RoadModel.class, PDPModel.class);
+			setDependencies(SnapshotModel.class);
 		}
 
 		public TaxiRenderer build(DependencyProvider dependencyProvider) {
-			final RoadModel rm = dependencyProvider.get(RoadModel.class);
-			final PDPModel pm = dependencyProvider.get(PDPModel.class);
-			return new TaxiRenderer(rm, pm);
+			return new TaxiRenderer(dependencyProvider.get(SnapshotModel.class));
 		}
 	}
 	
@@ -0,0 +1,399 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * The road graph with its chains of degree-2 nodes contracted, for searches.
+ * <p>
+ * Most nodes of maps derived from street data only carry the geometry of a road: they have a
+ * single road in and a single road out, or the same two neighbours in both directions. A search
+ * on the full graph expands them one by one. Here only the junctions, all other nodes, are
+ * searched, connected by edges that each stand for a whole chain. An edge keeps the interior
+ * nodes of its chain in order, with their distance from the start of the edge, so paths are
+ * expanded to every node of the roads they follow and distances to interior nodes can be derived
+ * from the distances to the junctions.
+ * <p>
+ * The edges of junction j are at the indices <code>_starts[j]</code> up to <code>_starts[j+1]</code>,
+ * the interior nodes of edge e at the indices <code>_interiorStarts[e]</code> up to
+ * <code>_interiorStarts[e+1]</code> of <code>_interior</code>. Nodes are identified by their id in
+ * the node table of {@link GraphUtils}. Lengths are straight-line distances, like
+ * {@link GraphUtils#getPathLength(List)}. Searches may run on several threads at once.
+ */
+class ChainGraph {
+
+	private static final int NONE = -1;
+
+	private final Point[] _nodes;
+	private final int[] _junctionNodes;		// The node id of every junction.
+	private final int[] _junctions;			// The junction of every node id, NONE for interior nodes.
+	private final int[] _starts;
+	private final int[] _sources;				// The junction at the start of every edge.
+	private final int[] _targets;				// The junction at the end of every edge.
+	private final double[] _lengths;
+	private final int[] _interiorStarts;
+	private final int[] _interior;			// The node ids of the interior nodes of all edges.
+	private final double[] _offsets;			// The distance of every interior node from the start of its edge.
+	private final int[] _interiorEdges;		// The edge of every interior node.
+	// The at most two places of every node id in the interior nodes, one for every direction of its chain.
+	private final int[] _places;
+	private final ThreadLocal<Search> _searches = new ThreadLocal<Search>() {
+		@Override
+		protected Search initialValue() {
+			return new Search();
+		}
+	};
+
+	/**
+	 * Build the contracted graph.
+	 * @param roads The outgoing roads of every node.
+	 * @param nodes The node table, a node's id is its index.
+	 */
+	ChainGraph(SteeringTable roads, Point[] nodes) {
+		_nodes = nodes;
+		int n = nodes.length;
+		int[] inCounts = new int[n];
+		for (int r = 0; r < roads.getFirstRoad(n); r++)
+			inCounts[roads.getRoadTarget(r)]++;
+		int[] inStarts = new int[n + 1];
+		for (int v = 0; v < n; v++)
+			inStarts[v + 1] = inStarts[v] + inCounts[v];
+		int[] inSources = new int[inStarts[n]];
+		int[] filled = new int[n];
+		for (int v = 0; v < n; v++)
+			for (int r = roads.getFirstRoad(v); r < roads.getFirstRoad(v + 1); r++) {
+				int t = roads.getRoadTarget(r);
+				inSources[inStarts[t] + filled[t]++] = v;
+			}
+
+		_junctions = new int[n];
+		List<Integer> junctionNodes = new ArrayList<Integer>();
+		for (int v = 0; v < n; v++) {
+			if (isChainNode(roads, inStarts, inSources, v))
+				_junctions[v] = NONE;
+			else {
+				_junctions[v] = junctionNodes.size();
+				junctionNodes.add(v);
+			}
+		}
+
+		// Walk the chains from every junction, promoting a node of every ring without junctions to one.
+		_places = new int[2*n];
+		Arrays.fill(_places, NONE);
+		List<Integer> sources = new ArrayList<Integer>(), targets = new ArrayList<Integer>();
+		List<Double> lengths = new ArrayList<Double>(), offsets = new ArrayList<Double>();
+		List<Integer> interiorStarts = new ArrayList<Integer>(), interior = new ArrayList<Integer>();
+		List<Integer> starts = new ArrayList<Integer>();
+		int walked = 0;
+		for (int v = 0; walked < junctionNodes.size() || v < n; v++) {
+			for (; walked < junctionNodes.size(); walked++) {
+				int a = junctionNodes.get(walked);
+				starts.add(sources.size());
+				for (int r = roads.getFirstRoad(a); r < roads.getFirstRoad(a + 1); r++) {
+					int prev = a, cur = roads.getRoadTarget(r);
+					double length = Point.distance(nodes[a], nodes[cur]);
+					interiorStarts.add(interior.size());
+					while (_junctions[cur] == NONE) {
+						_places[2*cur + (_places[2*cur] == NONE ? 0 : 1)] = interior.size();
+						interior.add(cur);
+						offsets.add(length);
+						int next = roads.getRoadTarget(roads.getFirstRoad(cur));
+						if (next == prev)
+							next = roads.getRoadTarget(roads.getFirstRoad(cur) + 1);
+						length += Point.distance(nodes[cur], nodes[next]);
+						prev = cur;
+						cur = next;
+					}
+					sources.add(walked);
+					targets.add(_junctions[cur]);
+					lengths.add(length);
+				}
+			}
+			if (v < n && _junctions[v] == NONE && _places[2*v] == NONE) {
+				_junctions[v] = junctionNodes.size();
+				junctionNodes.add(v);
+			}
+		}
+		starts.add(sources.size());
+		interiorStarts.add(interior.size());
+
+		_junctionNodes = toIntArray(junctionNodes);
+		_starts = toIntArray(starts);
+		_sources = toIntArray(sources);
+		_targets = toIntArray(targets);
+		_interiorStarts = toIntArray(interiorStarts);
+		_interior = toIntArray(interior);
+		_lengths = new double[lengths.size()];
+		for (int e = 0; e < _lengths.length; e++)
+			_lengths[e] = lengths.get(e);
+		_offsets = new double[offsets.size()];
+		_interiorEdges = new int[offsets.size()];
+		for (int e = 0; e < _lengths.length; e++)
+			for (int i = _interiorStarts[e]; i < _interiorStarts[e + 1]; i++) {
+				_offsets[i] = offsets.get(i);
+				_interiorEdges[i] = e;
+			}
+	}
+
+	/**
+	 * Check if a node only carries geometry: it has a single road in from one neighbour and a single
+	 * road out to another, or roads in and out to the same two other neighbours.
+	 */
+	private static boolean isChainNode(SteeringTable roads, int[] inStarts, int[] inSources, int v) {
+		int first = roads.getFirstRoad(v), outs = roads.getFirstRoad(v + 1) - first;
+		int ins = inStarts[v + 1] - inStarts[v];
+		if (outs != ins || outs < 1 || outs > 2)
+			return false;
+		int out0 = roads.getRoadTarget(first), in0 = inSources[inStarts[v]];
+		if (outs == 1)
+			return out0 != in0 && out0 != v && in0 != v;
+		int out1 = roads.getRoadTarget(first + 1), in1 = inSources[inStarts[v] + 1];
+		return out0 != out1 && out0 != v && out1 != v
+				&& ((out0 == in0 && out1 == in1) || (out0 == in1 && out1 == in0));
+	}
+
+	private static int[] toIntArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+
+	/**
+	 * The number of junctions, the nodes that are searched.
+	 */
+	int getJunctionCount() {
+		return _junctionNodes.length;
+	}
+
+	/**
+	 * Get the lengths of the shortest paths from a node to every node.
+	 * @param from The id of the node.
+	 * @return The lengths, by node id, {@link Double#POSITIVE_INFINITY} for unreachable nodes.
+	 */
+	double[] getLengths(int from) {
+		Search s = _searches.get();
+		s.start(null);
+		seed(s, from, NONE);
+		while (!s.open.isEmpty()) {
+			int j = s.open.poll().junction;
+			if (!s.isSettled(j)) {
+				s.settle(j);
+				relax(s, j, NONE);
+			}
+		}
+
+		double[] lengths = new double[_nodes.length];
+		Arrays.fill(lengths, Double.POSITIVE_INFINITY);
+		for (int j = 0; j < _junctionNodes.length; j++)
+			if (s.isSettled(j))
+				lengths[_junctionNodes[j]] = s.lengths[j];
+		for (int e = 0; e < _lengths.length; e++) {
+			if (!s.isSettled(_sources[e]))
+				continue;
+			double start = s.lengths[_sources[e]];
+			for (int i = _interiorStarts[e]; i < _interiorStarts[e + 1]; i++)
+				lengths[_interior[i]] = Math.min(lengths[_interior[i]], start + _offsets[i]);
+		}
+		// A search from an interior node also reaches the rest of its chains directly.
+		for (int p = 2*from; p < 2*from + 2; p++) {
+			int place = _places[p];
+			if (place == NONE)
+				continue;
+			for (int i = place + 1; i < _interiorStarts[_interiorEdges[place] + 1]; i++)
+				lengths[_interior[i]] = Math.min(lengths[_interior[i]], _offsets[i] - _offsets[place]);
+		}
+		lengths[from] = 0;
+		return lengths;
+	}
+
+	/**
+	 * Get the length of the shortest path between two nodes.
+	 * @param from The id of the node to start at.
+	 * @param to The id of the node to go to.
+	 * @return The length, or {@link Double#POSITIVE_INFINITY} if there is no path.
+	 */
+	double getLength(int from, int to) {
+		if (from == to)
+			return 0;
+		Search s = _searches.get();
+		int goal = search(s, from, to);
+		return s.isSettled(goal) ? s.lengths[goal] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Get the shortest path between two nodes, with every node along it.
+	 * @param from The id of the node to start at.
+	 * @param to The id of the node to go to.
+	 * @return The path, including both nodes, or <code>null</code> if there is none.
+	 */
+	List<Point> getPath(int from, int to) {
+		if (from == to)
+			return Collections.singletonList(_nodes[from]);
+		Search s = _searches.get();
+		int j = search(s, from, to);
+		if (!s.isSettled(j))
+			return null;
+		// Walk back over the edges, adding their interior nodes and the junctions at their start.
+		List<Point> path = new ArrayList<Point>();
+		path.add(_nodes[to]);
+		while (true) {
+			int e = s.edges[j];
+			int end = j == s.goal ? s.goalPlace : _interiorStarts[e + 1];
+			for (int i = end - 1; i >= s.startPlaces[j]; i--)
+				path.add(_nodes[_interior[i]]);
+			j = s.previous[j];
+			if (j == NONE) {
+				// The search started inside a chain.
+				path.add(_nodes[from]);
+				break;
+			}
+			path.add(_nodes[_junctionNodes[j]]);
+			if (s.edges[j] == NONE)
+				break;
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	/**
+	 * Run an A* search between two different nodes, with the straight line to the goal as the estimate.
+	 * An interior goal node is searched as an extra junction, {@link Search#goal}, reached over the edges it lies on.
+	 * @return The junction of the goal.
+	 */
+	private int search(Search s, int from, int to) {
+		s.start(_nodes[to]);
+		int goal = _junctions[to] == NONE ? s.goal : _junctions[to];
+		seed(s, from, to);
+		while (!s.open.isEmpty()) {
+			int j = s.open.poll().junction;
+			if (s.isSettled(j))
+				continue;
+			s.settle(j);
+			if (j == goal)
+				break;
+			relax(s, j, to);
+		}
+		return goal;
+	}
+
+	/**
+	 * Start a search at a node: at its junction, or at the ends of the chains it lies on.
+	 * @param to The goal node, or NONE when searching for all nodes.
+	 */
+	private void seed(Search s, int from, int to) {
+		int j = _junctions[from];
+		if (j != NONE) {
+			s.reach(j, 0, NONE, NONE, 0, estimate(s, j));
+			return;
+		}
+		for (int p = 2*from; p < 2*from + 2; p++) {
+			int place = _places[p];
+			if (place == NONE)
+				continue;
+			int e = _interiorEdges[place];
+			s.reach(_targets[e], _lengths[e] - _offsets[place], NONE, e, place + 1, estimate(s, _targets[e]));
+			// The goal can be further along the same chain.
+			if (to != NONE && _junctions[to] == NONE)
+				for (int q = 2*to; q < 2*to + 2; q++)
+					if (_places[q] > place && _interiorEdges[_places[q]] == e)
+						s.reachGoal(_offsets[_places[q]] - _offsets[place], NONE, e, place + 1, _places[q]);
+		}
+	}
+
+	/**
+	 * Relax the edges of a settled junction.
+	 * @param to The goal node, or NONE when searching for all nodes.
+	 */
+	private void relax(Search s, int j, int to) {
+		double length = s.lengths[j];
+		for (int e = _starts[j]; e < _starts[j + 1]; e++)
+			s.reach(_targets[e], length + _lengths[e], j, e, _interiorStarts[e], estimate(s, _targets[e]));
+		if (to == NONE || _junctions[to] != NONE)
+			return;
+		for (int q = 2*to; q < 2*to + 2; q++) {
+			int place = _places[q];
+			if (place != NONE && _sources[_interiorEdges[place]] == j)
+				s.reachGoal(length + _offsets[place], j, _interiorEdges[place], _interiorStarts[_interiorEdges[place]], place);
+		}
+	}
+
+	private double estimate(Search s, int j) {
+		return s.target == null ? 0 : Point.distance(_nodes[_junctionNodes[j]], s.target);
+	}
+
+	/**
+	 * The state of a search, reused by the searches of a thread. Instead of clearing the arrays,
+	 * every search has its own stamp, and only entries with the current stamp are valid.
+	 */
+	private class Search {
+		final int goal = _junctionNodes.length;	// The extra junction for an interior goal node.
+		final double[] lengths = new double[goal + 1];
+		final int[] previous = new int[goal + 1];		// The junction the edge to a junction comes from.
+		final int[] edges = new int[goal + 1];			// The edge over which a junction was reached.
+		final int[] startPlaces = new int[goal + 1];	// The first interior node of that edge that the path uses.
+		int goalPlace;									// The place of an interior goal node on the edge it was reached over.
+		Point target;
+		final PriorityQueue<SearchEntry> open = new PriorityQueue<SearchEntry>();
+		private final int[] _reached = new int[goal + 1];
+		private final int[] _settled = new int[goal + 1];
+		private int _stamp = 0;
+
+		/**
+		 * Start a new search.
+		 * @param target The goal to estimate the distance to, or <code>null</code> for a plain Dijkstra search.
+		 */
+		void start(Point target) {
+			_stamp++;
+			open.clear();
+			this.target = target;
+		}
+
+		boolean isSettled(int j) {
+			return _settled[j] == _stamp;
+		}
+
+		void settle(int j) {
+			_settled[j] = _stamp;
+		}
+
+		boolean reach(int j, double length, int from, int edge, int startPlace, double estimate) {
+			if (_settled[j] == _stamp || (_reached[j] == _stamp && lengths[j] <= length))
+				return false;
+			_reached[j] = _stamp;
+			lengths[j] = length;
+			previous[j] = from;
+			edges[j] = edge;
+			startPlaces[j] = startPlace;
+			open.add(new SearchEntry(j, length + estimate));
+			return true;
+		}
+
+		void reachGoal(double length, int from, int edge, int startPlace, int place) {
+			if (reach(goal, length, from, edge, startPlace, 0))
+				goalPlace = place;
+		}
+	}
+
+	/**
+	 * A junction with its estimated path length, ordered by length for use in a priority queue.
+	 */
+	private static class SearchEntry implements Comparable<SearchEntry> {
+		final int junction;
+		final double estimate;
+
+		SearchEntry(int junction, double estimate) {
+			this.junction = junction;
+			this.estimate = estimate;
+		}
+
+		public int compareTo(SearchEntry o) {
+			return Double.compare(estimate, o.estimate);
+		}
+	}
+}
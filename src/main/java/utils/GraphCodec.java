@@ -0,0 +1,98 @@
+package utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.rinde.rinsim.geom.Connection;
+import com.github.rinde.rinsim.geom.Graph;
+import com.github.rinde.rinsim.geom.MultiAttributeData;
+import com.github.rinde.rinsim.geom.Point;
+import com.github.rinde.rinsim.geom.TableGraph;
+
+/**
+ * Encodes a road graph in a flat binary form for the {@link PrecomputeCache}, which is much faster
+ * to read than the DOT file it was parsed from.
+ * <p>
+ * The form is the number of nodes and their coordinates, followed by the number of connections
+ * and, for every connection, the ids of its nodes, a byte of flags and its length and maximum
+ * speed, when the flags say they are set. Connections are stored in the order the graph returns
+ * them and added back in that order, so the decoded graph returns its nodes and connections in the
+ * same order as the original, which keeps runs with and without the cache identical.
+ */
+public final class GraphCodec {
+
+	public static final String KIND = "graph";
+	public static final int VERSION = 1;
+	private static final byte HAS_LENGTH = 1;
+	private static final byte HAS_MAX_SPEED = 2;
+
+	private GraphCodec() {
+
+	}
+
+	public static ByteBuffer encode(Graph<MultiAttributeData> graph) {
+		Set<Point> nodes = graph.getNodes();
+		Set<Connection<MultiAttributeData>> connections = graph.getConnections();
+		ByteBuffer b = ByteBuffer.allocate(4 + nodes.size()*16 + 4 + connections.size()*(4 + 4 + 1 + 16))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		Map<Point, Integer> ids = new HashMap<Point, Integer>(nodes.size() * 2);
+		b.putInt(nodes.size());
+		for (Point p : nodes) {
+			ids.put(p, ids.size());
+			b.putDouble(p.x);
+			b.putDouble(p.y);
+		}
+		b.putInt(connections.size());
+		for (Connection<MultiAttributeData> c : connections) {
+			b.putInt(ids.get(c.from()));
+			b.putInt(ids.get(c.to()));
+			byte flags = 0;
+			double length = 0, maxSpeed = 0;
+			if (c.data().isPresent()) {
+				MultiAttributeData data = c.data().get();
+				if (data.getLength().isPresent()) {
+					flags |= HAS_LENGTH;
+					length = data.getLength().get();
+				}
+				if (data.getMaxSpeed().isPresent()) {
+					flags |= HAS_MAX_SPEED;
+					maxSpeed = data.getMaxSpeed().get();
+				}
+			}
+			b.put(flags);
+			if ((flags & HAS_LENGTH) != 0)
+				b.putDouble(length);
+			if ((flags & HAS_MAX_SPEED) != 0)
+				b.putDouble(maxSpeed);
+		}
+		b.flip();
+		return b;
+	}
+
+	public static Graph<MultiAttributeData> decode(ByteBuffer b) {
+		Point[] nodes = new Point[b.getInt()];
+		for (int i = 0; i < nodes.length; i++)
+			nodes[i] = new Point(b.getDouble(), b.getDouble());
+		Graph<MultiAttributeData> graph = new TableGraph<MultiAttributeData>();
+		int connections = b.getInt();
+		for (int i = 0; i < connections; i++) {
+			Point from = nodes[b.getInt()];
+			Point to = nodes[b.getInt()];
+			byte flags = b.get();
+			if (flags == 0) {
+				graph.addConnection(from, to);
+				continue;
+			}
+			MultiAttributeData.Builder data = MultiAttributeData.builder();
+			if ((flags & HAS_LENGTH) != 0)
+				data.setLength(b.getDouble());
+			if ((flags & HAS_MAX_SPEED) != 0)
+				data.setMaxSpeed(b.getDouble());
+			graph.addConnection(from, to, data.build());
+		}
+		return graph;
+	}
+}
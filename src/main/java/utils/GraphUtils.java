@@ -1,7 +1,14 @@
 package utils;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 
 import org.apache.commons.math3.distribution.MultivariateRealDistribution;
 
@@ -17,20 +24,112 @@ public class GraphUtils {
 	static Graph<?> _graph;
 	static RoadModel _rm;
 	static Point _bounds[];
+	static NodeIndex _index;
+	static Point[] _nodes;					// The node table, a node's id is its index.
+	static Map<Point, Integer> _nodeIds;
+	static SteeringTable _steering;
+	static ChainGraph _chains;				// The graph with its chains contracted, null to search the full graph.
+	static final String INDEX_KIND = "index";
+	static final int INDEX_VERSION = 1;
 	
 	/**
 	 * Constructor.
 	 * @param graph The graph to use for calculations.
 	 */
 	public static void init(Graph<?> graph, RoadModel rm) {
+		init(graph, rm, null, null, true);
+	}
+
+	/**
+	 * Initialize with a graph, loading the spatial index and steering table from a cache when they
+	 * were built for the same graph before, and storing them in it otherwise.
+	 * @param graph The graph to use for calculations.
+	 * @param cache The cache, or <code>null</code> to always build them.
+	 * @param hash The hash of the graph, see {@link PrecomputeCache#hash}.
+	 * @param contract Whether to search between nodes on the graph with its chains of degree-2 nodes
+	 * contracted, see {@link ChainGraph}, instead of on the full graph.
+	 */
+	public static void init(Graph<?> graph, RoadModel rm, PrecomputeCache cache, String hash, boolean contract) {
 		_graph = graph;
 		_rm = rm;
+		_chains = null;
 		initBounds();
+		_nodes = graph.getNodes().toArray(new Point[0]);
+		_nodeIds = new HashMap<Point, Integer>(_nodes.length * 2);
+		for (int i = 0; i < _nodes.length; i++)
+			_nodeIds.put(_nodes[i], i);
+
+		ByteBuffer cached = null;
+		if (cache != null) {
+			try {
+				cached = cache.load(INDEX_KIND, INDEX_VERSION, hash);
+			} catch (IOException e) {
+				System.err.println("Could not read the cached index: " + e.getMessage());
+			}
+		}
+		if (cached != null) {
+			_index = new NodeIndex(_nodes, cached);
+			_steering = new SteeringTable(cached);
+		} else {
+			_index = new NodeIndex(_nodes);
+			_steering = new SteeringTable(graph, _nodes);
+			if (cache != null)
+				storeIndex(cache, hash);
+		}
+		// Contracting is linear in the size of the graph, and built from the steering table, so it isn't cached.
+		if (contract)
+			_chains = new ChainGraph(_steering, _nodes);
+	}
+
+	private static void storeIndex(PrecomputeCache cache, String hash) {
+		ByteBuffer b = ByteBuffer.allocate(_index.size() + _steering.size()).order(ByteOrder.LITTLE_ENDIAN);
+		_index.write(b);
+		_steering.write(b);
+		b.flip();
+		try {
+			cache.store(INDEX_KIND, INDEX_VERSION, hash, b);
+		} catch (IOException e) {
+			System.err.println("Could not cache the index: " + e.getMessage());
+		}
 	}
 
 	public static Graph<?> getGraph() {
 		return _graph;
 	}
+
+	/**
+	 * Get the id of a node in the node table, used to store routes compactly.
+	 * @param p A point.
+	 * @return The id of the node, or -1 if the point is not a node of the graph.
+	 */
+	public static int getNodeId(Point p) {
+		Integer id = _nodeIds.get(p);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Get the number of nodes in the node table, the ids of the nodes are 0 up to this number.
+	 */
+	public static int getNodeCount() {
+		return _nodes.length;
+	}
+
+	/**
+	 * Get the bounds of the graph.
+	 * @return The smallest and the largest coordinates of the nodes, as two points.
+	 */
+	public static Point[] getBounds() {
+		return _bounds.clone();
+	}
+
+	/**
+	 * Get a node from the node table.
+	 * @param id The id of the node.
+	 * @return The node.
+	 */
+	public static Point getNode(int id) {
+		return _nodes[id];
+	}
 	
 	/**
 	 * Calculate the bounds of the graph and remember them.
@@ -64,18 +163,30 @@ public class GraphUtils {
 		return getClosestNode(randomPoint);
 	}
 	
+	/**
+	 * Get the node closest to a point, using a spatial index of the nodes.
+	 * Safe to call from other threads than the simulation thread.
+	 * @param p A point on the map.
+	 * @return The closest node.
+	 */
 	static public Point getClosestNode(Point p) {
-		Point closestPoint = null;
-		double shortestDistance = Double.MAX_VALUE;
-		
-		for (Point n : _graph.getNodes()) {
-			double distance = Point.distance(n, p);
-			if (distance < shortestDistance) {
-				shortestDistance = distance;
-				closestPoint = n;
-			}
-		}
-		return closestPoint;
+		return _index.getClosestNode(p);
+	}
+
+	/**
+	 * Get the neighbour of a node whose road makes the smallest angle with a direction.
+	 * @param p A node of the graph.
+	 * @param x The x component of the direction.
+	 * @param y The y component of the direction.
+	 * @return The neighbour, or <code>null</code> if no road makes an angle of less than 90 degrees
+	 * with the direction, or if the point is not a node.
+	 */
+	static public Point getSmallestAngle(Point p, double x, double y) {
+		int id = getNodeId(p);
+		if (id < 0)
+			return null;
+		int to = _steering.getBestAligned(id, x, y);
+		return to < 0 ? null : _nodes[to];
 	}
 
 	/**
@@ -142,6 +253,12 @@ public class GraphUtils {
 	 * Get the length of the shortest path.
 	 */
 	static public double getShortestPathLength(Point from, Point to) {
+		int fromId = getNodeId(from), toId = getNodeId(to);
+		if (_chains != null && fromId >= 0 && toId >= 0) {
+			double length = _chains.getLength(fromId, toId);
+			if (length < Double.POSITIVE_INFINITY)
+				return length;
+		}
 		return getPathLength(_rm.getShortestPathTo(from, to));
 	}
 	static public double getShortestPathLength(RoadUser from, Point to) {
@@ -153,19 +270,69 @@ public class GraphUtils {
 	static public double getShortestPathLength(Point from, RoadUser to) {
 		return getPathLength(_rm.getShortestPathTo(from, _rm.getPosition(to)));
 	}
-/*
-	public static Point getSmallestAngle(Point p, RealVector v) {
-		Collection<Point> l = _graph.getOutgoingConnections(p);
-		double biggestCos = -2d;
-		Point r = null;
+
+	/**
+	 * Get the shortest path between two points. Between two nodes, the path is found on the
+	 * contracted graph, otherwise, e.g. from a vehicle halfway along a road, by the road model.
+	 * @return The path, including both points.
+	 */
+	static public List<Point> getShortestPath(Point from, Point to) {
+		int fromId = getNodeId(from), toId = getNodeId(to);
+		if (_chains != null && fromId >= 0 && toId >= 0) {
+			List<Point> path = _chains.getPath(fromId, toId);
+			if (path != null)
+				return path;
+		}
+		return _rm.getShortestPathTo(from, to);
+	}
+
+	/**
+	 * Get the shortest path lengths from a node to every node reachable from it,
+	 * using a single Dijkstra search with the same edge lengths as {@link #getPathLength(List)}.
+	 * @param from The node to search from.
+	 * @return The length of the shortest path to every node, by node id, {@link Double#POSITIVE_INFINITY}
+	 * for nodes that can't be reached.
+	 */
+	static public double[] getShortestPathLengths(Point from) {
+		int fromId = getNodeId(from);
+		if (fromId < 0)
+			throw new IllegalArgumentException(from + " is not a node of the graph.");
+		if (_chains != null)
+			return _chains.getLengths(fromId);
+		double[] lengths = new double[_nodes.length];
+		Arrays.fill(lengths, Double.POSITIVE_INFINITY);
+		boolean[] settled = new boolean[_nodes.length];
+		PriorityQueue<SearchEntry> open = new PriorityQueue<SearchEntry>();
+		open.add(new SearchEntry(from, 0d));
 		
-		for (Point to : l) {
-			double cos = v.cosine(new ArrayRealVector(new double[]{to.x, to.y}));
-			if (cos > biggestCos) {
-				biggestCos = cos;
-				r = to;
-			}
+		while (!open.isEmpty()) {
+			SearchEntry e = open.poll();
+			int id = getNodeId(e.node);
+			if (settled[id])
+				continue;
+			settled[id] = true;
+			lengths[id] = e.length;
+			for (Point to : _graph.getOutgoingConnections(e.node))
+				if (!settled[getNodeId(to)])
+					open.add(new SearchEntry(to, e.length + Point.distance(e.node, to)));
 		}
-		return r;
-	}*/
+		return lengths;
+	}
+
+	/**
+	 * A node with its tentative path length, ordered by length for use in a priority queue.
+	 */
+	static private class SearchEntry implements Comparable<SearchEntry> {
+		final Point node;
+		final double length;
+
+		SearchEntry(Point node, double length) {
+			this.node = node;
+			this.length = length;
+		}
+
+		public int compareTo(SearchEntry o) {
+			return Double.compare(length, o.length);
+		}
+	}
 }
@@ -7,6 +7,9 @@ import org.apache.commons.math3.exception.NotStrictlyPositiveException;
 
 import com.github.rinde.rinsim.geom.Point;
 
+import metrics.Metrics;
+import metrics.Phase;
+
 /**
  * Very basic empirical distribution, density is based on the bins surrounding
  * the given input, i.e. if x = 8.5, then the value of bins 8 and 9 will be averaged.
@@ -62,6 +65,7 @@ public class MultivariateEmpiricalDistribution implements MultivariateRealDistri
 	 * @param in
 	 */
 	public void load(double[] in) {
+		long start = Metrics.start();
 		// Update peak.
 		double[] gp = GraphUtils.scaleFromGraph(new Point(in[0],in[1]));
 		MultivariateNormalDistribution dist = new MultivariateNormalDistribution(gp, new double[][]{{0.01,0},{0,0.01}});
@@ -84,6 +88,7 @@ public class MultivariateEmpiricalDistribution implements MultivariateRealDistri
 		_total++;*/
 		if (_bins[y][x] > _peak)
 			_peak = _bins[y][x];
+		Metrics.stop(Phase.EMPIRICAL_LOAD, start);
 	}
 
 	public double getPeak() {
@@ -1,16 +1,14 @@
 package utils;
 
-import java.util.Random;
-
 import org.apache.commons.math3.distribution.MultivariateRealDistribution;
 import org.apache.commons.math3.exception.NotStrictlyPositiveException;
 
 public class MultivariateUniformDistribution implements MultivariateRealDistribution {
 	
-	private Random _rng;
+	private SplitMix64 _rng;
 	
 	public MultivariateUniformDistribution() {
-		_rng = new Random();
+		_rng = new SplitMix64(0);
 	}
 	
 	public double density(double[] x) {
@@ -22,7 +20,7 @@ public class MultivariateUniformDistribution implements MultivariateRealDistribu
 	}
 
 	public void reseedRandomGenerator(long seed) {
-		_rng = new Random(seed);
+		_rng.setSeed(seed);
 	}
 
 	public double[] sample() {
@@ -0,0 +1,153 @@
+package utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * A uniform grid over the nodes of a graph, to find the closest node to a point without looking
+ * at every node. The index is immutable once built, so it can be shared between threads.
+ * <p>
+ * The result is exactly that of a linear scan over the nodes in their original order: of several
+ * nodes at the same distance, the one that comes first is returned.
+ */
+class NodeIndex {
+
+	private static final double NODES_PER_CELL = 2d;
+
+	private final Point[] _nodes;
+	private final double _minX, _minY, _cellSize;
+	private final int _columns, _rows;
+	private final int[][] _cells;		// The indices of the nodes in every cell, in ascending order.
+
+	/**
+	 * Build the index.
+	 * @param nodes The nodes, in the order a linear scan would visit them.
+	 */
+	NodeIndex(Point[] nodes) {
+		_nodes = nodes;
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (Point p : _nodes) {
+			minX = Math.min(minX, p.x);
+			minY = Math.min(minY, p.y);
+			maxX = Math.max(maxX, p.x);
+			maxY = Math.max(maxY, p.y);
+		}
+		_minX = minX;
+		_minY = minY;
+		double size = Math.max(maxX - minX, maxY - minY);
+		int side = Math.max(1, (int)Math.ceil(Math.sqrt(_nodes.length / NODES_PER_CELL)));
+		_cellSize = size > 0 ? size / side : 1d;
+		_columns = Math.max(1, (int)((maxX - minX) / _cellSize) + 1);
+		_rows = Math.max(1, (int)((maxY - minY) / _cellSize) + 1);
+
+		List<List<Integer>> cells = new ArrayList<List<Integer>>(_columns * _rows);
+		for (int i = 0; i < _columns * _rows; i++)
+			cells.add(new ArrayList<Integer>());
+		for (int i = 0; i < _nodes.length; i++)
+			cells.get(cell(column(_nodes[i].x), row(_nodes[i].y))).add(i);
+		_cells = new int[cells.size()][];
+		for (int c = 0; c < _cells.length; c++) {
+			List<Integer> cell = cells.get(c);
+			_cells[c] = new int[cell.size()];
+			for (int i = 0; i < cell.size(); i++)
+				_cells[c][i] = cell.get(i);
+		}
+	}
+
+	/**
+	 * Read an index that was written with {@link #write(ByteBuffer)}.
+	 * @param nodes The nodes the index was built for.
+	 * @param b The buffer to read from.
+	 */
+	NodeIndex(Point[] nodes, ByteBuffer b) {
+		_nodes = nodes;
+		_minX = b.getDouble();
+		_minY = b.getDouble();
+		_cellSize = b.getDouble();
+		_columns = b.getInt();
+		_rows = b.getInt();
+		_cells = new int[_columns * _rows][];
+		for (int c = 0; c < _cells.length; c++) {
+			_cells[c] = new int[b.getInt()];
+			b.asIntBuffer().get(_cells[c]);
+			b.position(b.position() + _cells[c].length * 4);
+		}
+	}
+
+	/**
+	 * The number of bytes {@link #write(ByteBuffer)} writes.
+	 */
+	int size() {
+		return 3*8 + 2*4 + _cells.length*4 + _nodes.length*4;
+	}
+
+	/**
+	 * Write the index, to store it in the {@link PrecomputeCache}.
+	 */
+	void write(ByteBuffer b) {
+		b.putDouble(_minX);
+		b.putDouble(_minY);
+		b.putDouble(_cellSize);
+		b.putInt(_columns);
+		b.putInt(_rows);
+		for (int[] cell : _cells) {
+			b.putInt(cell.length);
+			for (int i : cell)
+				b.putInt(i);
+		}
+	}
+
+	private int column(double x) {
+		return Math.min(_columns - 1, Math.max(0, (int)((x - _minX) / _cellSize)));
+	}
+
+	private int row(double y) {
+		return Math.min(_rows - 1, Math.max(0, (int)((y - _minY) / _cellSize)));
+	}
+
+	private int cell(int column, int row) {
+		return row * _columns + column;
+	}
+
+	/**
+	 * Get the node closest to a point.
+	 * @param p The point, which doesn't have to lie within the bounds of the graph.
+	 * @return The closest node, or <code>null</code> if the graph has no nodes.
+	 */
+	Point getClosestNode(Point p) {
+		final int column = column(p.x);
+		final int row = row(p.y);
+		int best = -1;
+		double bestDistance = Double.MAX_VALUE;
+		final int maxRing = Math.max(_columns, _rows);
+		// Search rings of cells around the cell of the point. Nodes in ring r or further out are at
+		// least r-1 cells away, so once a node closer than that is found, the search can stop.
+		for (int r = 0; r <= maxRing; r++) {
+			if (best >= 0 && bestDistance < (r - 1) * _cellSize)
+				break;
+			for (int y = row - r; y <= row + r; y++) {
+				if (y < 0 || y >= _rows)
+					continue;
+				boolean edge = y == row - r || y == row + r;
+				for (int x = column - r; x <= column + r; x += edge ? 1 : 2*r) {
+					if (x >= 0 && x < _columns) {
+						for (int i : _cells[cell(x, y)]) {
+							double distance = Point.distance(_nodes[i], p);
+							if (distance < bestDistance || (distance == bestDistance && i < best)) {
+								bestDistance = distance;
+								best = i;
+							}
+						}
+					}
+					if (r == 0)
+						break;
+				}
+			}
+		}
+		return best < 0 ? null : _nodes[best];
+	}
+}
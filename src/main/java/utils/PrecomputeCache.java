@@ -0,0 +1,137 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A directory of precomputed artefacts that only depend on their inputs, like the parsed graph of
+ * a map, so they don't have to be rebuilt on every launch.
+ * <p>
+ * Every artefact is a file named after its kind, the version of its format and a content hash of
+ * its inputs, see {@link #hash}. When an input changes, so does the hash, and the artefact is
+ * rebuilt under a new name. Files start with {@link #MAGIC} and the length of their content, so
+ * a truncated file is rebuilt as well. Artefacts are written to a temporary file that is renamed
+ * when complete, so runs sharing a cache directory never see a partial artefact.
+ * <p>
+ * Artefacts are memory-mapped on load, in little-endian byte order.
+ */
+public class PrecomputeCache {
+
+	static final int MAGIC = 0x54415843;		// "TAXC"
+	static final int HEADER_SIZE = 4 + 8;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File _dir;
+
+	public PrecomputeCache(File dir) {
+		_dir = dir;
+	}
+
+	/**
+	 * Open a cache directory, creating it if needed.
+	 * @param dir The directory, or "none" to not cache.
+	 * @return The cache, or <code>null</code> if nothing should be cached.
+	 */
+	public static PrecomputeCache open(String dir) {
+		if (dir.equals("none"))
+			return null;
+		File file = new File(dir);
+		if (!file.isDirectory() && !file.mkdirs())
+			throw new IllegalArgumentException("Could not create the cache directory " + dir + ".");
+		return new PrecomputeCache(file);
+	}
+
+	/**
+	 * Compute the content hash of the inputs of an artefact.
+	 * @param data The contents of an input file, may be <code>null</code>.
+	 * @param parameters Any other inputs, e.g. the parameters of a distribution.
+	 * @return The hash, as hexadecimal text.
+	 */
+	public static String hash(byte[] data, String... parameters) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		if (data != null)
+			digest.update(data);
+		for (String p : parameters) {
+			digest.update((byte)0);
+			digest.update(p.getBytes(UTF8));
+		}
+		byte[] hash = digest.digest();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 16; i++)
+			sb.append(String.format("%02x", hash[i]));
+		return sb.toString();
+	}
+
+	private File file(String kind, int version, String hash) {
+		return new File(_dir, kind + "-v" + version + "-" + hash + ".bin");
+	}
+
+	/**
+	 * Load an artefact.
+	 * @param kind The kind of artefact, e.g. "graph".
+	 * @param version The version of the format of the artefact.
+	 * @param hash The hash of its inputs.
+	 * @return The content of the artefact, memory-mapped, or <code>null</code> if it isn't cached yet.
+	 */
+	public ByteBuffer load(String kind, int version, String hash) throws IOException {
+		File file = file(kind, version, hash);
+		if (!file.isFile())
+			return null;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < HEADER_SIZE)
+				return null;
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining() && channel.read(header) >= 0) { }
+			header.flip();
+			if (header.getInt() != MAGIC || header.getLong() != channel.size() - HEADER_SIZE)
+				return null;
+			// The mapping stays valid after the file is closed.
+			return channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, channel.size() - HEADER_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Store an artefact, replacing an earlier version with the same inputs.
+	 * @param kind The kind of artefact.
+	 * @param version The version of the format of the artefact.
+	 * @param hash The hash of its inputs.
+	 * @param content The content, from its position to its limit.
+	 */
+	public void store(String kind, int version, String hash, ByteBuffer content) throws IOException {
+		File file = file(kind, version, hash);
+		File partial = File.createTempFile(file.getName(), ".part", _dir);
+		RandomAccessFile raf = new RandomAccessFile(partial, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putLong(content.remaining()).flip();
+			while (header.hasRemaining())
+				channel.write(header);
+			while (content.hasRemaining())
+				channel.write(content);
+		} finally {
+			raf.close();
+		}
+		if (!partial.renameTo(file)) {
+			partial.delete();
+			throw new IOException("Could not rename " + partial + " to " + file + ".");
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package utils;
+
+/**
+ * Derives independent random streams from a single master seed, one for every subsystem and,
+ * where needed, one for every agent of a subsystem.
+ * <p>
+ * A stream only depends on the master seed and its keys, not on how many numbers other streams
+ * drew before it. So agents can draw in any order, or on any thread, and a run still gives the
+ * same results for the same seed.
+ */
+public final class RandomStreams {
+
+	// The subsystems.
+	public static final long MAP = 1;			// Gas station positions.
+	public static final long DEMAND = 2;		// Customer arrival positions.
+	public static final long TAXIS = 3;			// Taxi start positions, one stream per taxi.
+	public static final long CUSTOMERS = 4;		// Customer patience and destinations, one stream per customer.
+
+	private final long _seed;
+
+	/**
+	 * @param seed The master seed of the run.
+	 */
+	public RandomStreams(long seed) {
+		_seed = seed;
+	}
+
+	/**
+	 * Get the seed of a subsystem's stream.
+	 * @param subsystem The subsystem.
+	 * @return The seed.
+	 */
+	public long getSeed(long subsystem) {
+		return SplitMix64.mix(SplitMix64.mix(_seed + SplitMix64.GOLDEN_GAMMA) + subsystem * SplitMix64.GOLDEN_GAMMA);
+	}
+
+	/**
+	 * Get the seed of an agent's stream within a subsystem.
+	 * @param subsystem The subsystem.
+	 * @param agent The id of the agent.
+	 * @return The seed.
+	 */
+	public long getSeed(long subsystem, long agent) {
+		return SplitMix64.mix(getSeed(subsystem) + (agent + 1) * SplitMix64.GOLDEN_GAMMA);
+	}
+
+	/**
+	 * Create the stream of a subsystem, always starting at the same point.
+	 */
+	public SplitMix64 get(long subsystem) {
+		return new SplitMix64(getSeed(subsystem));
+	}
+
+	/**
+	 * Create the stream of an agent within a subsystem, always starting at the same point.
+	 */
+	public SplitMix64 get(long subsystem, long agent) {
+		return new SplitMix64(getSeed(subsystem, agent));
+	}
+}
@@ -0,0 +1,212 @@
+package utils;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * A route over the graph, stored as the ids of its nodes, see {@link GraphUtils#getNodeId(Point)},
+ * instead of as a list of points. Points are only looked up when the route is read.
+ * <p>
+ * A route may contain points that are not nodes of the graph, e.g. the position of a vehicle
+ * halfway along a road. Those are rare and kept aside, referred to by negative ids.
+ * <p>
+ * Points keep the index they had when they were appended, counting the removed points, so a
+ * vehicle can mark a stop on its route and check whether it got there, see {@link #getStart()}.
+ */
+public class Route {
+
+	private static final int[] EMPTY = new int[0];
+
+	private int[] _ids = EMPTY;
+	private int _head = 0;			// The index of the first point in the id array.
+	private int _tail = 0;			// The index after the last point in the id array.
+	private List<Point> _others;	// Points that are not nodes, id -1 is the first one.
+	private int _removed = 0;		// The number of points removed from the start, the index of the first point.
+	private final Head _queue = new Head();
+
+	public Route() { }
+
+	/**
+	 * Create a copy of a route.
+	 * @param route The route to copy.
+	 */
+	public Route(Route route) {
+		_ids = new int[route.size()];
+		System.arraycopy(route._ids, route._head, _ids, 0, _ids.length);
+		_tail = _ids.length;
+		_removed = route._removed;
+		if (route._others != null)
+			_others = new ArrayList<Point>(route._others);
+	}
+
+	public int size() {
+		return _tail - _head;
+	}
+
+	public boolean isEmpty() {
+		return _tail == _head;
+	}
+
+	/**
+	 * Get a point of the route.
+	 * @param i The index of the point, 0 is the first point.
+	 * @return The point.
+	 */
+	public Point get(int i) {
+		int id = _ids[_head + i];
+		return id >= 0 ? GraphUtils.getNode(id) : _others.get(-id - 1);
+	}
+
+	/**
+	 * Get the first point of the route.
+	 * @return The first point.
+	 */
+	public Point first() {
+		return get(0);
+	}
+
+	/**
+	 * Remove the first point of the route.
+	 */
+	public void removeFirst() {
+		if (isEmpty())
+			throw new IllegalStateException("The route is empty.");
+		_head++;
+		_removed++;
+		if (isEmpty()) {
+			_head = _tail = 0;
+			_others = null;
+		}
+	}
+
+	/**
+	 * Get the index of the first point, the number of points that were ever removed from the route.
+	 */
+	public int getStart() {
+		return _removed;
+	}
+
+	/**
+	 * Get the index after the last point, the number of points that were ever appended to the route.
+	 */
+	public int getEnd() {
+		return _removed + size();
+	}
+
+	/**
+	 * Get the first points of the route as a queue, to follow them with
+	 * {@link com.github.rinde.rinsim.core.model.road.RoadModel#followPath}. Removing points from the
+	 * queue removes them from the route. The queue is reused, so only one can be in use at a time.
+	 * @param limit The number of points the queue holds at most.
+	 * @return The queue.
+	 */
+	public Queue<Point> asQueue(int limit) {
+		_queue._limit = limit;
+		return _queue;
+	}
+
+	/**
+	 * Append a path to the route.
+	 * @param path The points to append.
+	 */
+	public void addAll(List<Point> path) {
+		ensureCapacity(path.size());
+		for (Point p : path) {
+			int id = GraphUtils.getNodeId(p);
+			if (id < 0) {
+				if (_others == null)
+					_others = new ArrayList<Point>(2);
+				_others.add(p);
+				id = -_others.size();
+			}
+			_ids[_tail++] = id;
+		}
+	}
+
+	/**
+	 * Make room for more points at the end, by reclaiming the space of removed points or growing the array.
+	 */
+	private void ensureCapacity(int extra) {
+		if (_tail + extra <= _ids.length)
+			return;
+		int size = size();
+		int[] ids = size + extra <= _ids.length / 2 ? _ids : new int[Math.max(16, 2*(size + extra))];
+		System.arraycopy(_ids, _head, ids, 0, size);
+		_ids = ids;
+		_head = 0;
+		_tail = size;
+	}
+
+	/**
+	 * A view of the first points of the route as a queue that can only be taken from.
+	 */
+	private class Head extends AbstractQueue<Point> {
+		int _limit;
+
+		@Override
+		public int size() {
+			return Math.min(_limit, Route.this.size());
+		}
+
+		public boolean offer(Point p) {
+			throw new UnsupportedOperationException("Points can only be appended to the route.");
+		}
+
+		public Point peek() {
+			return size() > 0 ? first() : null;
+		}
+
+		public Point poll() {
+			if (size() == 0)
+				return null;
+			Point p = first();
+			removeFirst();
+			_limit--;
+			return p;
+		}
+
+		@Override
+		public Iterator<Point> iterator() {
+			return new Iterator<Point>() {
+				private int _i = 0;
+
+				public boolean hasNext() {
+					return _i < size();
+				}
+
+				public Point next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					return get(_i++);
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+
+	/**
+	 * Get the length of the route, the same as {@link GraphUtils#getPathLength(List)} of its points.
+	 * @return The length of the route.
+	 */
+	public double getLength() {
+		double length = 0;
+		if (!isEmpty()) {
+			Point prev = get(0);
+			for (int i = 1; i < size(); i++) {
+				Point curr = get(i);
+				length += Point.distance(prev, curr);
+				prev = curr;
+			}
+		}
+		return length;
+	}
+}
@@ -0,0 +1,61 @@
+package utils;
+
+import org.apache.commons.math3.random.BitsStreamGenerator;
+
+/**
+ * The SplitMix64 generator: a 64 bit counter, scrambled by a mixing function. It is fast, has a
+ * single long of state, and seeds that differ in a single bit give unrelated streams, which makes
+ * it suited to derive a separate stream for every agent, see {@link RandomStreams}.
+ */
+public class SplitMix64 extends BitsStreamGenerator {
+
+	private static final long serialVersionUID = 1L;
+	static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private long _state;
+
+	public SplitMix64(long seed) {
+		setSeed(seed);
+	}
+
+	/**
+	 * The mixing function of SplitMix64, a bijection that scrambles all bits of its input.
+	 * @param z The value to mix.
+	 * @return The mixed value.
+	 */
+	public static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	@Override
+	public long nextLong() {
+		_state += GOLDEN_GAMMA;
+		return mix(_state);
+	}
+
+	@Override
+	protected int next(int bits) {
+		return (int)(nextLong() >>> (64 - bits));
+	}
+
+	@Override
+	public void setSeed(int seed) {
+		setSeed((long)seed);
+	}
+
+	@Override
+	public void setSeed(int[] seed) {
+		long s = 0;
+		for (int i : seed)
+			s = mix(s + GOLDEN_GAMMA) ^ i;
+		setSeed(s);
+	}
+
+	@Override
+	public void setSeed(long seed) {
+		_state = seed;
+		clear();
+	}
+}
@@ -0,0 +1,130 @@
+package utils;
+
+import java.nio.ByteBuffer;
+
+import com.github.rinde.rinsim.geom.Graph;
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * The outgoing roads of every node, with their unit direction vectors and lengths precomputed in
+ * flat arrays, to steer along a direction over the graph instead of through free space.
+ * <p>
+ * The roads of node n are at the indices <code>_starts[n]</code> up to <code>_starts[n+1]</code>,
+ * nodes are identified by their id in the node table of {@link GraphUtils}.
+ */
+class SteeringTable {
+
+	private final int[] _starts;
+	private final int[] _targets;
+	private final double[] _directionX;
+	private final double[] _directionY;
+	private final double[] _lengths;
+
+	/**
+	 * Build the table.
+	 * @param graph The graph.
+	 * @param nodes The node table, a node's id is its index.
+	 */
+	SteeringTable(Graph<?> graph, Point[] nodes) {
+		_starts = new int[nodes.length + 1];
+		int edges = 0;
+		for (Point n : nodes)
+			edges += graph.getOutgoingConnections(n).size();
+		_targets = new int[edges];
+		_directionX = new double[edges];
+		_directionY = new double[edges];
+		_lengths = new double[edges];
+
+		int e = 0;
+		for (int n = 0; n < nodes.length; n++) {
+			_starts[n] = e;
+			for (Point to : graph.getOutgoingConnections(nodes[n])) {
+				double length = Point.distance(nodes[n], to);
+				_targets[e] = GraphUtils.getNodeId(to);
+				_lengths[e] = length;
+				_directionX[e] = length > 0 ? (to.x - nodes[n].x) / length : 0;
+				_directionY[e] = length > 0 ? (to.y - nodes[n].y) / length : 0;
+				e++;
+			}
+		}
+		_starts[nodes.length] = e;
+	}
+
+	/**
+	 * Read a table that was written with {@link #write(ByteBuffer)}.
+	 */
+	SteeringTable(ByteBuffer b) {
+		_starts = new int[b.getInt()];
+		int edges = b.getInt();
+		_targets = new int[edges];
+		_directionX = new double[edges];
+		_directionY = new double[edges];
+		_lengths = new double[edges];
+		b.asIntBuffer().get(_starts);
+		b.position(b.position() + _starts.length*4);
+		b.asIntBuffer().get(_targets);
+		b.position(b.position() + edges*4);
+		for (double[] a : new double[][]{_directionX, _directionY, _lengths}) {
+			b.asDoubleBuffer().get(a);
+			b.position(b.position() + edges*8);
+		}
+	}
+
+	/**
+	 * The number of bytes {@link #write(ByteBuffer)} writes.
+	 */
+	int size() {
+		return 2*4 + _starts.length*4 + _targets.length*(4 + 3*8);
+	}
+
+	/**
+	 * Write the table, to store it in the {@link PrecomputeCache}.
+	 */
+	void write(ByteBuffer b) {
+		b.putInt(_starts.length);
+		b.putInt(_targets.length);
+		for (int s : _starts)
+			b.putInt(s);
+		for (int t : _targets)
+			b.putInt(t);
+		for (double[] a : new double[][]{_directionX, _directionY, _lengths})
+			for (double d : a)
+				b.putDouble(d);
+	}
+
+	/**
+	 * Get the index of the first outgoing road of a node, its roads end before the first road of the next node.
+	 * @param node The id of the node, or the number of nodes to get the number of roads.
+	 */
+	int getFirstRoad(int node) {
+		return _starts[node];
+	}
+
+	/**
+	 * Get the id of the node at the end of a road.
+	 */
+	int getRoadTarget(int road) {
+		return _targets[road];
+	}
+
+	/**
+	 * Find the outgoing road of a node that is best aligned with a direction.
+	 * @param node The id of the node.
+	 * @param x The x component of the direction, need not be a unit vector.
+	 * @param y The y component of the direction.
+	 * @return The id of the node at the end of the road with the smallest angle to the direction,
+	 * or -1 if no road makes an angle of less than 90 degrees with it.
+	 */
+	int getBestAligned(int node, double x, double y) {
+		int best = -1;
+		double bestDot = 0;
+		for (int e = _starts[node]; e < _starts[node + 1]; e++) {
+			double dot = _directionX[e]*x + _directionY[e]*y;
+			if (dot > bestDot && _lengths[e] > 0) {
+				bestDot = dot;
+				best = _targets[e];
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,105 @@
+package utils;
+
+import com.github.rinde.rinsim.geom.Graph;
+import com.github.rinde.rinsim.geom.MultiAttributeData;
+import com.github.rinde.rinsim.geom.Point;
+import com.github.rinde.rinsim.geom.TableGraph;
+
+/**
+ * Generates synthetic road graphs, used to test the simulator on cities of arbitrary size.
+ * <p>
+ * Synthetic graphs can be used wherever a map name is expected, see {@link #isSynthetic(String)}.
+ */
+public class SyntheticGraphs {
+
+	static final String GRID_PREFIX = "grid:";
+	static final String RADIAL_PREFIX = "radial:";
+	private static final double DEFAULT_SPACING = 1000d;	// 100m between intersections.
+
+	/**
+	 * Check if a map name describes a synthetic graph, e.g. "grid:100x100" or "radial:20x64".
+	 * @param name The map name.
+	 * @return Whether the name describes a synthetic graph.
+	 */
+	public static boolean isSynthetic(String name) {
+		return name.startsWith(GRID_PREFIX) || name.startsWith(RADIAL_PREFIX);
+	}
+
+	/**
+	 * Create the synthetic graph that a map name describes.
+	 * @param name The map name, "grid:&lt;columns&gt;x&lt;rows&gt;" or "radial:&lt;rings&gt;x&lt;spokes&gt;".
+	 * @return The graph.
+	 */
+	public static Graph<MultiAttributeData> create(String name) {
+		if (name.startsWith(GRID_PREFIX)) {
+			String[] size = name.substring(GRID_PREFIX.length()).split("x");
+			return grid(Integer.parseInt(size[0]), Integer.parseInt(size[1]), DEFAULT_SPACING);
+		}
+		if (name.startsWith(RADIAL_PREFIX)) {
+			String[] size = name.substring(RADIAL_PREFIX.length()).split("x");
+			return radial(Integer.parseInt(size[0]), Integer.parseInt(size[1]), DEFAULT_SPACING);
+		}
+		throw new IllegalArgumentException("Unknown synthetic graph: " + name + ".");
+	}
+
+	/**
+	 * Create a Manhattan style grid of two-way roads.
+	 * @param columns The number of intersections along the x axis.
+	 * @param rows The number of intersections along the y axis.
+	 * @param spacing The distance between neighbouring intersections.
+	 * @return The grid graph.
+	 */
+	public static Graph<MultiAttributeData> grid(int columns, int rows, double spacing) {
+		Graph<MultiAttributeData> graph = new TableGraph<MultiAttributeData>();
+		Point[][] nodes = new Point[columns][rows];
+		for (int x = 0; x < columns; x++)
+			for (int y = 0; y < rows; y++)
+				nodes[x][y] = new Point(x*spacing, y*spacing);
+		for (int x = 0; x < columns; x++) {
+			for (int y = 0; y < rows; y++) {
+				if (x + 1 < columns)
+					addRoad(graph, nodes[x][y], nodes[x+1][y]);
+				if (y + 1 < rows)
+					addRoad(graph, nodes[x][y], nodes[x][y+1]);
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Create a radial city: ring roads around a center, connected by spokes running outwards.
+	 * @param rings The number of ring roads.
+	 * @param spokes The number of spokes, i.e. of intersections on every ring.
+	 * @param spacing The distance between neighbouring rings.
+	 * @return The radial graph.
+	 */
+	public static Graph<MultiAttributeData> radial(int rings, int spokes, double spacing) {
+		Graph<MultiAttributeData> graph = new TableGraph<MultiAttributeData>();
+		// Offset the center so all coordinates are positive, like on the real maps.
+		double offset = rings*spacing;
+		Point center = new Point(offset, offset);
+		Point[][] nodes = new Point[rings][spokes];
+		for (int r = 0; r < rings; r++) {
+			for (int s = 0; s < spokes; s++) {
+				double alpha = 2*Math.PI/spokes*s;
+				double radius = (r+1)*spacing;
+				nodes[r][s] = new Point(offset + radius*Math.cos(alpha), offset + radius*Math.sin(alpha));
+			}
+		}
+		for (int r = 0; r < rings; r++) {
+			for (int s = 0; s < spokes; s++) {
+				addRoad(graph, nodes[r][s], nodes[r][(s+1) % spokes]);
+				addRoad(graph, r == 0 ? center : nodes[r-1][s], nodes[r][s]);
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Add a two-way road between two points.
+	 */
+	static void addRoad(Graph<MultiAttributeData> graph, Point a, Point b) {
+		graph.addConnection(a, b);
+		graph.addConnection(b, a);
+	}
+}
@@ -0,0 +1,61 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timer wheel: items are scheduled at a tick and expire when that tick is reached.
+ * Scheduling is O(1), and expiring only looks at the items in the slot of the current tick,
+ * so the cost does not grow with the number of items waiting for other ticks.
+ * @param <T> The type of the scheduled items.
+ */
+public class TimerWheel<T> {
+
+	private static final int SLOTS = 64;		// Must be a power of two.
+
+	private final List<List<Timer<T>>> _slots = new ArrayList<List<Timer<T>>>(SLOTS);
+
+	public TimerWheel() {
+		for (int i = 0; i < SLOTS; i++)
+			_slots.add(new ArrayList<Timer<T>>());
+	}
+
+	/**
+	 * Schedule an item.
+	 * @param item The item.
+	 * @param tick The tick at which the item expires.
+	 */
+	public void schedule(T item, long tick) {
+		_slots.get((int)(tick & (SLOTS - 1))).add(new Timer<T>(item, tick));
+	}
+
+	/**
+	 * Remove the items that expire at a tick. Ticks must be expired in order, without skipping any.
+	 * @param tick The current tick.
+	 * @param expired The list to add the expired items to, in the order they were scheduled.
+	 */
+	public void expire(long tick, List<T> expired) {
+		List<Timer<T>> slot = _slots.get((int)(tick & (SLOTS - 1)));
+		int kept = 0;
+		for (int i = 0; i < slot.size(); i++) {
+			Timer<T> t = slot.get(i);
+			if (t.tick == tick)
+				expired.add(t.item);
+			else
+				slot.set(kept++, t);
+		}
+		// Drop the expired timers from the end of the slot.
+		for (int i = slot.size() - 1; i >= kept; i--)
+			slot.remove(i);
+	}
+
+	private static class Timer<T> {
+		final T item;
+		final long tick;
+
+		Timer(T item, long tick) {
+			this.item = item;
+			this.tick = tick;
+		}
+	}
+}